@@ -0,0 +1,377 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.build;
+
+import com.google.sps.images.ExifOrientation;
+import com.google.sps.images.ImageResizer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Build step that prepares the webapp for long-lived browser caching.
+ *
+ * <p>Copies the webapp to an output directory and adds a /static directory holding:
+ *
+ * <ul>
+ *   <li>a copy of every script and stylesheet, named after a hash of its content
+ *   <li>resized, recompressed copies of every image in /images at 1x and 2x of the size the pages
+ *       display them at, plus WebP copies when the cwebp tool is installed
+ * </ul>
+ *
+ * <p>The HTML pages are rewritten to reference the hashed copies. Since a hashed file never
+ * changes, appengine-web.xml lets browsers cache /static for a year. The image variants are also
+ * listed in WEB-INF/image-variants.json, for GalleryManifest to point the galleries at them.
+ *
+ * <p>Usage: StaticAssetOptimizer &lt;webapp directory&gt; &lt;output directory&gt;
+ */
+public final class StaticAssetOptimizer {
+
+  /** Directory in the output that holds every hashed file. */
+  private static final String STATIC_DIR = "static";
+
+  /** Longest side in pixels of the 1x image variant; the 2x variant is twice as large. */
+  private static final int IMAGE_SIZE = 400;
+
+  private static final float JPEG_QUALITY = 0.8f;
+  private static final int WEBP_QUALITY = 80;
+
+  /** File in the output, under WEB-INF, that lists the variants of every image. */
+  private static final String VARIANTS_FILE = "image-variants.json";
+
+  /** Number of hex digits of the content hash put in file names. */
+  private static final int HASH_LENGTH = 10;
+
+  private static final Pattern IMG_TAG =
+      Pattern.compile("<img\\b[^>]*>(\\s*</img>)?", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SRC_ATTRIBUTE =
+      Pattern.compile("\\bsrc=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ASSET_ATTRIBUTE =
+      Pattern.compile("\\b(src|href)=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+
+  private final Path webappDir;
+  private final Path outputDir;
+  private final boolean webpAvailable;
+
+  /** Hashed URL of each script and stylesheet, by path relative to the webapp. */
+  private final Map<String, String> assetUrls = new HashMap<>();
+
+  /** Optimized variants of each image, by path relative to the webapp. */
+  private final Map<String, ImageVariants> imageVariants = new HashMap<>();
+
+  private StaticAssetOptimizer(Path webappDir, Path outputDir) {
+    this.webappDir = webappDir;
+    this.outputDir = outputDir;
+    this.webpAvailable = isCwebpInstalled();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: StaticAssetOptimizer <webapp directory> <output directory>");
+      System.exit(1);
+    }
+    System.setProperty("java.awt.headless", "true");
+    new StaticAssetOptimizer(Paths.get(args[0]), Paths.get(args[1])).run();
+  }
+
+  private void run() throws IOException {
+    if (!webpAvailable) {
+      System.out.println("cwebp not found, skipping WebP images.");
+    }
+
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(webappDir)) {
+      files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+
+    // Copy the webapp as is first; the rewritten pages overwrite their copies afterwards.
+    for (Path file : files) {
+      Path target = outputDir.resolve(webappDir.relativize(file).toString());
+      Files.createDirectories(target.getParent());
+      Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    for (Path file : files) {
+      String relativePath = toUrlPath(webappDir.relativize(file));
+      if (relativePath.startsWith("WEB-INF/")) {
+        continue;
+      }
+      String extension = getExtension(relativePath);
+      if (extension.equals("js") || extension.equals("css")) {
+        assetUrls.put(relativePath, writeHashed(relativePath, Files.readAllBytes(file)));
+      } else if (relativePath.startsWith("images/")
+          && (extension.equals("jpg") || extension.equals("jpeg") || extension.equals("png"))) {
+        ImageVariants variants = optimizeImage(relativePath, file);
+        if (variants != null) {
+          imageVariants.put(relativePath, variants);
+        }
+      }
+    }
+
+    for (Path file : files) {
+      String relativePath = toUrlPath(webappDir.relativize(file));
+      if (getExtension(relativePath).equals("html")) {
+        String html = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Path target = outputDir.resolve(relativePath);
+        Files.write(target, rewriteHtml(html).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    writeVariantsFile();
+    System.out.println("Hashed " + assetUrls.size() + " scripts and stylesheets and "
+        + imageVariants.size() + " images into " + outputDir.resolve(STATIC_DIR));
+  }
+
+  /** Points the page's images, scripts and stylesheets at their hashed copies. */
+  private String rewriteHtml(String html) {
+    // Images become a <picture> so browsers that support WebP can pick it.
+    Matcher imgMatcher = IMG_TAG.matcher(html);
+    StringBuffer withImages = new StringBuffer();
+    while (imgMatcher.find()) {
+      String tag = imgMatcher.group();
+      Matcher srcMatcher = SRC_ATTRIBUTE.matcher(tag);
+      ImageVariants variants = null;
+      if (srcMatcher.find()) {
+        variants = imageVariants.get(toAssetPath(srcMatcher.group(1)));
+      }
+      String replacement = variants == null ? tag : variants.toHtml(tag, srcMatcher);
+      imgMatcher.appendReplacement(withImages, Matcher.quoteReplacement(replacement));
+    }
+    imgMatcher.appendTail(withImages);
+
+    Matcher assetMatcher = ASSET_ATTRIBUTE.matcher(withImages);
+    StringBuffer rewritten = new StringBuffer();
+    while (assetMatcher.find()) {
+      String url = assetUrls.get(toAssetPath(assetMatcher.group(2)));
+      String replacement =
+          url == null ? assetMatcher.group() : assetMatcher.group(1) + "=\"" + url + "\"";
+      assetMatcher.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+    }
+    assetMatcher.appendTail(rewritten);
+    return rewritten.toString();
+  }
+
+  /**
+   * Writes a JSON object from the path of each image to its oriented size and variant URLs. Paths
+   * and hashed URLs only hold characters that need no escaping in JSON.
+   */
+  private void writeVariantsFile() throws IOException {
+    StringBuilder json = new StringBuilder("{");
+    for (Map.Entry<String, ImageVariants> image : new TreeMap<>(imageVariants).entrySet()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append("\n  \"").append(image.getKey()).append("\": ").append(image.getValue().toJson());
+    }
+    json.append("\n}\n");
+    Path target = outputDir.resolve("WEB-INF").resolve(VARIANTS_FILE);
+    Files.createDirectories(target.getParent());
+    Files.write(target, json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Writes the 1x and 2x variants of an image, or returns null if it can't be decoded. */
+  private ImageVariants optimizeImage(String relativePath, Path file) throws IOException {
+    byte[] original = Files.readAllBytes(file);
+    BufferedImage image = ImageIO.read(file.toFile());
+    if (image == null) {
+      System.out.println("Skipping image that can't be decoded: " + relativePath);
+      return null;
+    }
+    // Re-encoding drops the EXIF data, so apply its orientation to the pixels.
+    image = ExifOrientation.apply(image, ExifOrientation.read(original));
+
+    boolean png = getExtension(relativePath).equals("png");
+    String baseName = stripExtension(relativePath);
+    ImageVariants variants = new ImageVariants(image.getWidth(), image.getHeight());
+    for (int scale = 1; scale <= 2; scale++) {
+      BufferedImage resized = ImageResizer.resize(image, IMAGE_SIZE * scale, png);
+      String variantPath = baseName + "." + scale + "x." + (png ? "png" : "jpg");
+      byte[] encoded = png ? encodePng(resized) : encodeJpeg(resized);
+      variants.urls[scale - 1] = writeHashed(variantPath, encoded);
+      if (webpAvailable) {
+        String webpPath = baseName + "." + scale + "x.webp";
+        variants.webpUrls[scale - 1] = writeHashed(webpPath, toWebp(encoded));
+      }
+    }
+    return variants;
+  }
+
+  /** Writes content under /static with its hash in the name, and returns its URL. */
+  private String writeHashed(String relativePath, byte[] content) throws IOException {
+    String extension = getExtension(relativePath);
+    String hashedPath = stripExtension(relativePath) + "." + hash(content) + "." + extension;
+    Path target = outputDir.resolve(STATIC_DIR).resolve(hashedPath);
+    Files.createDirectories(target.getParent());
+    Files.write(target, content);
+    return "/" + STATIC_DIR + "/" + hashedPath;
+  }
+
+  /** Converts an encoded image to WebP with the cwebp tool. */
+  private static byte[] toWebp(byte[] encoded) throws IOException {
+    Path input = Files.createTempFile("asset", ".img");
+    Path output = Files.createTempFile("asset", ".webp");
+    try {
+      Files.write(input, encoded);
+      Process process = new ProcessBuilder("cwebp", "-quiet", "-q", String.valueOf(WEBP_QUALITY),
+              input.toString(), "-o", output.toString())
+          .inheritIO()
+          .start();
+      if (process.waitFor() != 0) {
+        throw new IOException("cwebp failed with exit code " + process.exitValue());
+      }
+      return Files.readAllBytes(output);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running cwebp", e);
+    } finally {
+      Files.deleteIfExists(input);
+      Files.deleteIfExists(output);
+    }
+  }
+
+  private static boolean isCwebpInstalled() {
+    try {
+      Process process = new ProcessBuilder("cwebp", "-version").redirectErrorStream(true).start();
+      process.getInputStream().close();
+      return process.waitFor() == 0;
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(JPEG_QUALITY);
+    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodePng(BufferedImage image) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", bytes);
+    return bytes.toByteArray();
+  }
+
+  private static String hash(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; hex.length() < HASH_LENGTH; i++) {
+        hex.append(String.format("%02x", digest[i]));
+      }
+      return hex.substring(0, HASH_LENGTH);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /** Returns the webapp-relative path an attribute value points to, or null for other URLs. */
+  private static String toAssetPath(String url) {
+    if (url.contains("://") || url.startsWith("//") || url.contains("?") || url.contains("#")) {
+      return null;
+    }
+    return url.startsWith("/") ? url.substring(1) : url;
+  }
+
+  private static String toUrlPath(Path relativePath) {
+    return relativePath.toString().replace('\\', '/');
+  }
+
+  private static String getExtension(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot < 0 ? "" : path.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  private static String stripExtension(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot < 0 ? path : path.substring(0, dot);
+  }
+
+  /** URLs of the 1x and 2x copies of an image. */
+  private static final class ImageVariants {
+
+    private final int width;
+    private final int height;
+    private final String[] urls = new String[2];
+    private final String[] webpUrls = new String[2];
+
+    ImageVariants(int width, int height) {
+      this.width = width;
+      this.height = height;
+    }
+
+    /** Returns the img tag pointing at these variants, inside a picture if there is WebP. */
+    String toHtml(String imgTag, Matcher srcMatcher) {
+      String img = imgTag.substring(0, srcMatcher.start())
+          + "src=\"" + urls[0] + "\" srcset=\"" + srcset(urls) + "\""
+          + imgTag.substring(srcMatcher.end());
+      // <img> has no closing tag, so drop a stray </img> rather than leave it after </picture>.
+      img = img.replaceFirst("(?i)\\s*</img>$", "");
+      if (webpUrls[0] == null) {
+        return img;
+      }
+      return "<picture><source type=\"image/webp\" srcset=\"" + srcset(webpUrls) + "\">"
+          + img + "</picture>";
+    }
+
+    /** Returns the size of the original image and the variant URLs as a JSON object. */
+    String toJson() {
+      String json = "{\"width\": " + width + ", \"height\": " + height
+          + ", \"src\": \"" + urls[0] + "\", \"srcset\": \"" + srcset(urls) + "\"";
+      if (webpUrls[0] != null) {
+        json += ", \"webpSrcset\": \"" + srcset(webpUrls) + "\"";
+      }
+      return json + "}";
+    }
+
+    private static String srcset(String[] variantUrls) {
+      return variantUrls[0] + " 1x, " + variantUrls[1] + " 2x";
+    }
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.analysis;
+
+/** Class containing the scores an analyzer gave one comment. */
+public final class CommentAnalysis {
+
+  private final double sentiment;
+  private final String language;
+  private final double spamScore;
+
+  public CommentAnalysis(double sentiment, String language, double spamScore) {
+    this.sentiment = sentiment;
+    this.language = language;
+    this.spamScore = spamScore;
+  }
+
+  /** Returns how positive the comment is, from -1 (negative) to 1 (positive). */
+  public double getSentiment() {
+    return sentiment;
+  }
+
+  /** Returns the ISO 639-1 code of the comment's language, or "und" if it is unknown. */
+  public String getLanguage() {
+    return language;
+  }
+
+  /** Returns how likely the comment is to be spam, from 0 to 1. */
+  public double getSpamScore() {
+    return spamScore;
+  }
+}
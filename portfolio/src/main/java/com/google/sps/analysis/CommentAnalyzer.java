@@ -0,0 +1,30 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.analysis;
+
+import java.util.List;
+
+/**
+ * Scores the text of comments.
+ *
+ * <p>Comments are passed in batches so that an analyzer backed by a remote service can send one
+ * request for many comments. Implementations need a public no-argument constructor, since the one
+ * to use is named in the comment.analyzer system property.
+ */
+public interface CommentAnalyzer {
+
+  /** Returns the analysis of each text, in the same order. */
+  List<CommentAnalysis> analyze(List<String> texts);
+}
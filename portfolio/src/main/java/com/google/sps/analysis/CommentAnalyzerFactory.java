@@ -0,0 +1,42 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.analysis;
+
+/**
+ * Creates the CommentAnalyzer named by the comment.analyzer system property, which can be set in
+ * appengine-web.xml. Without it, comments are scored by RuleBasedAnalyzer.
+ */
+public final class CommentAnalyzerFactory {
+
+  /** System property holding the class name of the analyzer to use. */
+  public static final String ANALYZER_PROPERTY = "comment.analyzer";
+
+  private CommentAnalyzerFactory() {}
+
+  public static CommentAnalyzer getCommentAnalyzer() {
+    String className = System.getProperty(ANALYZER_PROPERTY);
+    if (className == null || className.isEmpty()) {
+      return new RuleBasedAnalyzer();
+    }
+    try {
+      return Class.forName(className)
+          .asSubclass(CommentAnalyzer.class)
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalStateException("Could not create comment analyzer " + className, e);
+    }
+  }
+}
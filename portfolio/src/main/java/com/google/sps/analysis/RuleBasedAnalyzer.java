@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Analyzer that scores comments with word lists and simple rules, without calling any service.
+ *
+ * <p>Sentiment counts positive and negative words, flipping a word that follows a negation. The
+ * language is the one whose common words appear most often. The spam score adds up signs like
+ * links, shouting and repeated characters.
+ */
+public final class RuleBasedAnalyzer implements CommentAnalyzer {
+
+  private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}']+");
+  private static final Pattern LINK = Pattern.compile("(?i)https?://|www\\.");
+  private static final Pattern REPEATED_CHARACTER = Pattern.compile("(.)\\1{4,}");
+
+  private static final Set<String> POSITIVE_WORDS = words(
+      "amazing awesome beautiful best brilliant cool excellent fantastic fun glad good great"
+          + " happy impressive incredible interesting like love lovely nice perfect thanks"
+          + " wonderful wow");
+
+  private static final Set<String> NEGATIVE_WORDS = words(
+      "annoying awful bad boring broken hate horrible poor sad terrible ugly wrong worse worst");
+
+  private static final Set<String> NEGATIONS =
+      words("not no never don't doesn't didn't isn't wasn't can't won't");
+
+  private static final Set<String> SPAM_WORDS = words(
+      "bitcoin casino click crypto discount free investment loan offer prize viagra winner");
+
+  /** Common words of each language, used to guess which one a comment is in. */
+  private static final Map<String, Set<String>> STOP_WORDS = new LinkedHashMap<>();
+
+  static {
+    STOP_WORDS.put("en", words("the and is it to of you that this was for with are have not"));
+    STOP_WORDS.put("es", words("el la los las y es que de en un una por con para muy"));
+    STOP_WORDS.put("fr", words("le la les et est que de en un une pour avec pas je tres"));
+    STOP_WORDS.put("de", words("der die das und ist nicht ein eine ich mit sehr zu auf"));
+    STOP_WORDS.put("pt", words("o a os as e que de em um uma para com muito nao"));
+    STOP_WORDS.put("it", words("il lo la gli e che di un una per con non molto sono"));
+  }
+
+  @Override
+  public List<CommentAnalysis> analyze(List<String> texts) {
+    List<CommentAnalysis> results = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      results.add(analyze(text == null ? "" : text));
+    }
+    return results;
+  }
+
+  private static CommentAnalysis analyze(String text) {
+    List<String> words = new ArrayList<>();
+    Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+    while (matcher.find()) {
+      words.add(matcher.group());
+    }
+    return new CommentAnalysis(sentiment(words), language(words), spamScore(text, words));
+  }
+
+  private static double sentiment(List<String> words) {
+    int score = 0;
+    int scoredWords = 0;
+    for (int i = 0; i < words.size(); i++) {
+      int polarity = POSITIVE_WORDS.contains(words.get(i)) ? 1
+          : NEGATIVE_WORDS.contains(words.get(i)) ? -1 : 0;
+      if (polarity == 0) {
+        continue;
+      }
+      if (i > 0 && NEGATIONS.contains(words.get(i - 1))) {
+        polarity = -polarity;
+      }
+      score += polarity;
+      scoredWords++;
+    }
+    return scoredWords == 0 ? 0 : (double) score / scoredWords;
+  }
+
+  private static String language(List<String> words) {
+    Map<String, Integer> hits = new HashMap<>();
+    for (String word : words) {
+      for (Map.Entry<String, Set<String>> language : STOP_WORDS.entrySet()) {
+        if (language.getValue().contains(word)) {
+          hits.merge(language.getKey(), 1, Integer::sum);
+        }
+      }
+    }
+
+    // Ties go to the language listed first in STOP_WORDS.
+    String best = "und";
+    int bestHits = 0;
+    for (String language : STOP_WORDS.keySet()) {
+      int languageHits = hits.getOrDefault(language, 0);
+      if (languageHits > bestHits) {
+        best = language;
+        bestHits = languageHits;
+      }
+    }
+    return best;
+  }
+
+  private static double spamScore(String text, List<String> words) {
+    double score = 0;
+
+    Matcher links = LINK.matcher(text);
+    int linkCount = 0;
+    while (links.find()) {
+      linkCount++;
+    }
+    score += Math.min(0.6, 0.3 * linkCount);
+
+    int spamWords = 0;
+    for (String word : words) {
+      if (SPAM_WORDS.contains(word)) {
+        spamWords++;
+      }
+    }
+    score += Math.min(0.4, 0.2 * spamWords);
+
+    int letters = 0;
+    int capitals = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isLetter(c)) {
+        letters++;
+        if (Character.isUpperCase(c)) {
+          capitals++;
+        }
+      }
+    }
+    if (letters >= 10 && capitals > letters * 0.7) {
+      score += 0.2;
+    }
+
+    if (REPEATED_CHARACTER.matcher(text).find()) {
+      score += 0.1;
+    }
+    return Math.min(1.0, score);
+  }
+
+  private static Set<String> words(String words) {
+    return new HashSet<>(Arrays.asList(words.split(" ")));
+  }
+}
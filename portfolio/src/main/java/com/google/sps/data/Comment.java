@@ -14,15 +14,39 @@
 
 package com.google.sps.data;
 
+import com.google.gson.Gson;
+import java.io.Serializable;
+
 /** Class containing comment data. */
-public final class Comment {
+public final class Comment implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private static final Gson GSON = new Gson();
 
   private final String entry;
   private final String imageUrl;
+  private final String srcset;
+  private final ImagePreview preview;
 
-  public Comment(String entry, String imageUrl) {
+  public Comment(String entry, String imageUrl, String srcset, ImagePreview preview) {
     this.entry = entry;
     this.imageUrl = imageUrl;
+    this.srcset = srcset;
+    this.preview = preview;
+  }
+
+  /** Builds the Comment to display from the fields of a posted comment. */
+  public static Comment render(String commentName, String commentText, String userEmail,
+      String imageUrl, String srcset, ImagePreview preview) {
+    // Determine the name to display.
+    if(commentName == null || commentName.isEmpty()) {
+      commentName = userEmail;
+    }
+
+    // Combine the name and the commentText together.
+    String commentEntry = commentName + ": \"" + commentText + "\"";
+
+    return new Comment(commentEntry, imageUrl, srcset, preview);
   }
 
   public String getEntry() {
@@ -32,4 +56,19 @@ public final class Comment {
   public String getImageUrl() {
     return imageUrl;
   }
+
+  /** Returns the resized copies of the image as an img srcset value, or null if there are none. */
+  public String getSrcset() {
+    return srcset;
+  }
+
+  /** Returns what is needed to lay out the image before it loads, or null if it isn't known. */
+  public ImagePreview getPreview() {
+    return preview;
+  }
+
+  /** Returns this comment encoded as a JSON object. */
+  public String toJson() {
+    return GSON.toJson(this);
+  }
 }
@@ -0,0 +1,331 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Write-through cache of the newest comments.
+ *
+ * <p>Each instance keeps an immutable snapshot of the newest CAPACITY comments in memory. Memcache
+ * holds a generation number that every write bumps, plus the latest snapshot, so that instances
+ * notice each other's writes and can pick up a snapshot without going to Datastore.
+ */
+public final class CommentCache {
+
+  /** Number of comments kept in the cache. */
+  public static final int CAPACITY = 30;
+
+  /** How long the local feed version is trusted before the shared one is checked again. */
+  private static final long GENERATION_CHECK_INTERVAL_MS = 1000;
+
+  private static final String GENERATION_KEY = "comment-feed-generation";
+  private static final String MODIFIED_KEY = "comment-feed-modified";
+  private static final String SNAPSHOT_KEY = "comment-feed-snapshot";
+
+  private static final CommentCache INSTANCE =
+      new CommentCache(MemcacheServiceFactory.getMemcacheService());
+
+  private final MemcacheService memcache;
+  private final AtomicReference<FeedVersion> localVersion = new AtomicReference<>();
+  private final AtomicReference<Snapshot> localSnapshot = new AtomicReference<>();
+
+  private CommentCache(MemcacheService memcache) {
+    this.memcache = memcache;
+  }
+
+  public static CommentCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the newest `count` comments, or null if the cache can't answer and the caller should
+   * load the comments from Datastore and pass them to fill().
+   */
+  public CommentPage getFirstPage(int count) {
+    Snapshot snapshot = currentSnapshot();
+    if (snapshot == null) {
+      return null;
+    }
+    return snapshot.firstPage(count);
+  }
+
+  /**
+   * Returns the current version of the comment feed, or null if memcache is unavailable. The
+   * version is only read from memcache once every GENERATION_CHECK_INTERVAL_MS.
+   */
+  public FeedVersion getFeedVersion() {
+    FeedVersion version = localVersion.get();
+    long now = System.currentTimeMillis();
+    if (version != null && now - version.checkedAt < GENERATION_CHECK_INTERVAL_MS) {
+      return version;
+    }
+
+    Map<String, Object> values = memcache.getAll(Arrays.asList(GENERATION_KEY, MODIFIED_KEY));
+    Long generation = (Long) values.get(GENERATION_KEY);
+    if (generation == null) {
+      // Start from the current time rather than 0, so a counter that memcache evicted can't come
+      // back with a generation that clients have already seen.
+      generation = memcache.increment(GENERATION_KEY, 0, now);
+      if (generation == null) {
+        return null;
+      }
+    }
+    Long lastModified = (Long) values.get(MODIFIED_KEY);
+    if (lastModified == null) {
+      lastModified = now;
+      memcache.put(MODIFIED_KEY, lastModified, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    FeedVersion checked = new FeedVersion(generation, lastModified, now);
+    localVersion.set(checked);
+    return checked;
+  }
+
+  /**
+   * Returns the shared generation to pass to fill(), or -1 if memcache is unavailable. Read this
+   * before querying Datastore, so a write racing with the query makes the filled snapshot stale.
+   */
+  public long getGeneration() {
+    FeedVersion version = getFeedVersion();
+    return version == null ? -1 : version.generation;
+  }
+
+  /**
+   * Replaces the cache with comments just loaded from Datastore, newest first.
+   *
+   * @param complete whether `entries` holds every comment in Datastore
+   */
+  public void fill(long generation, List<Entry> entries, boolean complete) {
+    if (generation < 0) {
+      return;
+    }
+    Snapshot snapshot = new Snapshot(generation, entries, complete);
+    localSnapshot.set(snapshot);
+    memcache.put(SNAPSHOT_KEY, snapshot);
+  }
+
+  /**
+   * Adds the JSON of a comment that was just written to Datastore to the front of the cache.
+   * Returns the new generation, or -1 if it is unknown.
+   */
+  public long addNewest(Key key, String commentJson) {
+    Entry entry = new Entry(key, commentJson, null);
+    return update(snapshot -> snapshot.withNewest(entry));
+  }
+
+  /**
+   * Replaces the JSON of a comment that was just updated in Datastore, e.g. after its image was
+   * attached, keeping the rest of the cache. Returns the new generation, or -1 if it is unknown.
+   */
+  public long replace(Key key, String commentJson) {
+    String keyString = KeyFactory.keyToString(key);
+    return update(snapshot -> snapshot.withReplaced(keyString, commentJson));
+  }
+
+  /**
+   * Records a write and applies it to the snapshot it follows, here and in memcache. Returns the
+   * new generation, or -1 if it is unknown.
+   */
+  private long update(UnaryOperator<Snapshot> change) {
+    Long generation = bumpVersion();
+    if (generation == null) {
+      localSnapshot.set(null);
+      return -1;
+    }
+
+    // Only change a snapshot if no other write happened since it was taken. Otherwise let the next
+    // read reload it. The write may come from an instance without a snapshot of its own, such as
+    // one running a task, so fall back to the shared one.
+    Snapshot local = localSnapshot.get();
+    Snapshot current = local;
+    if (current == null || current.generation != generation - 1) {
+      Snapshot shared = (Snapshot) memcache.get(SNAPSHOT_KEY);
+      if (shared == null || shared.generation != generation - 1) {
+        localSnapshot.compareAndSet(local, null);
+        return generation;
+      }
+      current = shared;
+    }
+
+    Snapshot updated = change.apply(current).withGeneration(generation);
+    localSnapshot.compareAndSet(local, updated);
+    memcache.put(SNAPSHOT_KEY, updated);
+    return generation;
+  }
+
+  /**
+   * Empties the cache on this instance and every other one. Returns the new generation, or -1 if
+   * it is unknown.
+   */
+  public long clear() {
+    Long generation = bumpVersion();
+    memcache.delete(SNAPSHOT_KEY);
+    localSnapshot.set(null);
+    return generation == null ? -1 : generation;
+  }
+
+  /** Records a write to the comments. Returns the new generation, or null if it is unknown. */
+  private Long bumpVersion() {
+    long now = System.currentTimeMillis();
+    Long generation = memcache.increment(GENERATION_KEY, 1, now);
+    memcache.put(MODIFIED_KEY, now);
+    localVersion.set(generation == null ? null : new FeedVersion(generation, now, now));
+    return generation;
+  }
+
+  /** Returns a snapshot that matches the shared generation, or null if there is none. */
+  private Snapshot currentSnapshot() {
+    FeedVersion version = getFeedVersion();
+    if (version == null) {
+      return null;
+    }
+    Snapshot snapshot = localSnapshot.get();
+    if (snapshot != null && snapshot.generation == version.generation) {
+      return snapshot;
+    }
+
+    // Another instance wrote since our snapshot was taken, so try the one it shared.
+    Snapshot shared = (Snapshot) memcache.get(SNAPSHOT_KEY);
+    if (shared != null && shared.generation == version.generation) {
+      localSnapshot.set(shared);
+      return shared;
+    }
+    return null;
+  }
+
+  /** Version of the comment feed: it changes whenever a comment is posted, updated or deleted. */
+  public static final class FeedVersion {
+
+    private final long generation;
+    private final long lastModified;
+    private final long checkedAt;
+
+    FeedVersion(long generation, long lastModified, long checkedAt) {
+      this.generation = generation;
+      this.lastModified = lastModified;
+      this.checkedAt = checkedAt;
+    }
+
+    /** Returns a number that changes on every write to the comments. */
+    public long getGeneration() {
+      return generation;
+    }
+
+    /** Returns the time in milliseconds of the latest write to the comments. */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  /** A cached comment's key, its JSON and the Datastore cursor that points just past it. */
+  public static final class Entry implements Serializable {
+
+    private static final long serialVersionUID = 3L;
+
+    private final String key;
+    private final String commentJson;
+    private final String cursor;
+
+    /** @param cursor the web-safe cursor after this comment, or null if it isn't known */
+    public Entry(Key key, String commentJson, String cursor) {
+      this(KeyFactory.keyToString(key), commentJson, cursor);
+    }
+
+    private Entry(String key, String commentJson, String cursor) {
+      this.key = key;
+      this.commentJson = commentJson;
+      this.cursor = cursor;
+    }
+  }
+
+  /** Immutable list of the newest comments as of one generation. */
+  private static final class Snapshot implements Serializable {
+
+    private static final long serialVersionUID = 3L;
+
+    private final long generation;
+    private final List<Entry> entries;
+    private final boolean complete;
+
+    Snapshot(long generation, List<Entry> entries, boolean complete) {
+      this.generation = generation;
+      this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+      this.complete = complete;
+    }
+
+    Snapshot withGeneration(long newGeneration) {
+      return new Snapshot(newGeneration, entries, complete);
+    }
+
+    Snapshot withNewest(Entry entry) {
+      List<Entry> updated = new ArrayList<>(CAPACITY);
+      updated.add(entry);
+      updated.addAll(entries);
+      boolean stillComplete = complete && updated.size() <= CAPACITY;
+      if (updated.size() > CAPACITY) {
+        updated.subList(CAPACITY, updated.size()).clear();
+      }
+      return new Snapshot(generation, updated, stillComplete);
+    }
+
+    /** Returns this snapshot with one comment's JSON replaced, if the comment is in it. */
+    Snapshot withReplaced(String key, String commentJson) {
+      List<Entry> updated = new ArrayList<>(entries);
+      for (int i = 0; i < updated.size(); i++) {
+        Entry entry = updated.get(i);
+        if (entry.key.equals(key)) {
+          updated.set(i, new Entry(key, commentJson, entry.cursor));
+        }
+      }
+      return new Snapshot(generation, updated, complete);
+    }
+
+    /** Returns the first `count` comments, or null if the cursor after them isn't known. */
+    CommentPage firstPage(int count) {
+      int size = Math.min(count, entries.size());
+      boolean lastPage = complete && size == entries.size();
+
+      String cursor = null;
+      if (!lastPage) {
+        if (size == 0) {
+          return null;
+        }
+        cursor = entries.get(size - 1).cursor;
+        if (cursor == null) {
+          return null;
+        }
+      }
+
+      List<String> commentJson = new ArrayList<>(size);
+      for (Entry entry : entries.subList(0, size)) {
+        commentJson.add(entry.commentJson);
+      }
+      return new CommentPage(commentJson, cursor);
+    }
+  }
+}
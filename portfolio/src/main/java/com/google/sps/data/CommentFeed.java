@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads pages of comments, newest first, from the comment cache or Datastore. */
+public final class CommentFeed {
+
+  private CommentFeed() {}
+
+  /** Returns the newest comments, from the comment cache if it can answer and Datastore if not. */
+  public static CommentPage getFirstPage(int maxComments) {
+    CommentCache commentCache = CommentCache.getInstance();
+    CommentPage page = commentCache.getFirstPage(maxComments);
+    if (page != null) {
+      return page;
+    }
+
+    // Refill the cache with the newest comments, remembering the cursor after each one so that
+    // cached pages of any size can link to the next page.
+    long generation = commentCache.getGeneration();
+    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    QueryResultIterator<Entity> results = datastore.prepare(query)
+        .asQueryResultIterator(FetchOptions.Builder.withLimit(CommentCache.CAPACITY));
+
+    List<CommentCache.Entry> entries = new ArrayList<>();
+    while (results.hasNext()) {
+      Entity entity = results.next();
+      String cursor = results.getCursor().toWebSafeString();
+      entries.add(new CommentCache.Entry(entity.getKey(), getCommentJson(entity), cursor));
+    }
+    commentCache.fill(generation, entries, entries.size() < CommentCache.CAPACITY);
+
+    page = commentCache.getFirstPage(maxComments);
+    if (page != null) {
+      return page;
+    }
+    return queryPage(FetchOptions.Builder.withLimit(maxComments), maxComments);
+  }
+
+  /** Queries one page of comments from Datastore. */
+  public static CommentPage queryPage(FetchOptions fetchOptions, int maxComments) {
+    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    // Fill commentEntries arrayList with data from Datastore.
+    ArrayList<String> commentEntries = new ArrayList<String>();
+    for (Entity entity : results) {
+      commentEntries.add(getCommentJson(entity));
+    }
+
+    // A short page means there is nothing left to fetch after it.
+    String nextCursor = null;
+    if (results.size() == maxComments) {
+      nextCursor = results.getCursor().toWebSafeString();
+    }
+    return new CommentPage(commentEntries, nextCursor);
+  }
+
+  /**
+   * Returns the JSON stored on a Comment entity when it was posted. Comments posted before the JSON
+   * was stored are rendered from their properties instead.
+   */
+  public static String getCommentJson(Entity entity) {
+    Text commentJson = (Text) entity.getProperty("json");
+    if (commentJson != null) {
+      return commentJson.getValue();
+    }
+
+    String commentName = (String) entity.getProperty("name");
+    String commentText = (String) entity.getProperty("text");
+    String userEmail = (String) entity.getProperty("email");
+    String imageUrl = (String) entity.getProperty("imageUrl");
+    String srcset = (String) entity.getProperty("srcset");
+    ImagePreview preview = ImagePreview.fromProperties(entity);
+    return Comment.render(commentName, commentText, userEmail, imageUrl, srcset, preview)
+        .toJson();
+  }
+}
@@ -0,0 +1,530 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the text and author of every comment, used for search.
+ *
+ * <p>Each comment gets a document number in the order it was added, so the posting list of a word
+ * is a sorted int array that only ever grows at the end. Like CommentCache, the index remembers the
+ * feed generation it reflects. Writes made on this instance are applied in place. If another
+ * instance wrote in between, the next search catches up by querying the comments whose
+ * UPDATED_PROPERTY changed since the last catch-up, while other searches keep using the index as
+ * it is. Only a purge of every comment, which DeleteServlet records with recordPurge(), makes the
+ * index load every comment again.
+ */
+public final class CommentIndex {
+
+  /** Indexed property holding the time in milliseconds a comment was last written. */
+  public static final String UPDATED_PROPERTY = "updated";
+
+  /** Comments read from Datastore per round trip while loading. */
+  private static final int REBUILD_CHUNK_SIZE = 500;
+
+  /**
+   * How far back each catch-up looks before the previous one, since a write can take a while to
+   * show up in query results. For this long after a change, catch-ups also repeat every
+   * SETTLE_INTERVAL_MS even without a new one.
+   */
+  private static final long CATCH_UP_OVERLAP_MS = 60 * 1000;
+
+  private static final long SETTLE_INTERVAL_MS = 5 * 1000;
+
+  private static final Key PURGE_KEY = KeyFactory.createKey("CommentPurge", "latest");
+
+  private static final CommentIndex INSTANCE = new CommentIndex();
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** Held while loading or catching up, so that only one request does it at a time. */
+  private final Lock syncLock = new ReentrantLock();
+
+  /** The indexed comments. Guarded by lock. */
+  private Documents documents = new Documents();
+
+  /** Feed generation the index reflects, or -1 if it may be out of date. Guarded by lock. */
+  private long generation = -1;
+
+  /** Whether the index has been loaded from Datastore at least once. Guarded by lock. */
+  private boolean loaded = false;
+
+  /** Time the last load or catch-up started; changes before it are indexed. Guarded by lock. */
+  private long syncedAt = 0;
+
+  /** Time a catch-up last found the generation changed. Guarded by lock. */
+  private long changedAt = 0;
+
+  /** Time of the latest purge the index has been loaded since. Guarded by syncLock. */
+  private long purgedAt = 0;
+
+  CommentIndex() {}
+
+  public static CommentIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the comments containing every word of `query`, best match first, or null if the query
+   * has no words. Pages are addressed by the number of results to skip.
+   *
+   * @param currentGeneration the shared feed generation, or -1 if it is unknown
+   */
+  public SearchResults search(String query, int offset, int limit, long currentGeneration) {
+    List<String> terms = tokenize(query);
+    if (terms.isEmpty()) {
+      return null;
+    }
+
+    boolean wasLoaded;
+    lock.readLock().lock();
+    try {
+      if (isCurrent(currentGeneration, System.currentTimeMillis())) {
+        return documents.search(terms, offset, limit);
+      }
+      wasLoaded = loaded;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    if (!wasLoaded) {
+      // There is nothing to answer from yet, so wait for one request to load the index.
+      syncLock.lock();
+      try {
+        sync(currentGeneration);
+      } finally {
+        syncLock.unlock();
+      }
+    } else if (syncLock.tryLock()) {
+      try {
+        sync(currentGeneration);
+      } finally {
+        syncLock.unlock();
+      }
+    }
+    // Otherwise another request is catching up, and this one answers from the index as it is.
+
+    lock.readLock().lock();
+    try {
+      return documents.search(terms, offset, limit);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Loads every comment from Datastore, replacing what the index held. */
+  public void rebuild() {
+    syncLock.lock();
+    try {
+      rebuild(DatastoreServiceFactory.getDatastoreService(),
+          CommentCache.getInstance().getGeneration());
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  /**
+   * Records that every comment is being deleted, so that each instance's index loads the
+   * remaining comments again rather than catching up. Call it once the deletes are done.
+   */
+  public static void recordPurge() {
+    Entity purge = new Entity(PURGE_KEY);
+    purge.setUnindexedProperty("time", System.currentTimeMillis());
+    DatastoreServiceFactory.getDatastoreService().put(purge);
+  }
+
+  /**
+   * Adds a comment that was just written to Datastore.
+   *
+   * @param newGeneration the feed generation after the write, or -1 if it is unknown
+   */
+  public void add(Key key, String author, String text, String json, long newGeneration) {
+    lock.writeLock().lock();
+    try {
+      documents.add(key, author, text, json);
+      advance(newGeneration);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Replaces the JSON of an indexed comment, e.g. after its image was attached. */
+  public void update(Key key, String json, long newGeneration) {
+    lock.writeLock().lock();
+    try {
+      documents.update(key, json);
+      advance(newGeneration);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Removes comments that were deleted from Datastore. Unknown keys are ignored. */
+  public void remove(Iterable<Key> keys, long newGeneration) {
+    lock.writeLock().lock();
+    try {
+      for (Key key : keys) {
+        documents.remove(key);
+      }
+      advance(newGeneration);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Marks the index as out of date, so the next search catches up with Datastore. */
+  public void invalidate() {
+    lock.writeLock().lock();
+    try {
+      generation = -1;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the author shown on a comment: its name, or the poster's email if it has none. */
+  public static String getAuthor(String name, String email) {
+    return name == null || name.isEmpty() ? email : name;
+  }
+
+  /** Splits text into lowercase runs of letters and digits. */
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    String lower = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lower.length(); i++) {
+      boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        tokens.add(lower.substring(start, i));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  private boolean isCurrent(long currentGeneration, long now) {
+    if (!loaded) {
+      return false;
+    }
+    if (currentGeneration < 0) {
+      // Without memcache there is no way to tell, so trust whatever was loaded.
+      return true;
+    }
+    if (currentGeneration != generation) {
+      return false;
+    }
+    // A recent write may not have shown up in the last catch-up's query yet.
+    return now - changedAt >= CATCH_UP_OVERLAP_MS || now - syncedAt < SETTLE_INTERVAL_MS;
+  }
+
+  /** Moves to the generation after a local write, unless another write came in between. */
+  private void advance(long newGeneration) {
+    generation = newGeneration >= 0 && generation == newGeneration - 1 ? newGeneration : -1;
+  }
+
+  /** Brings the index up to date with Datastore: loads it if needed, or else catches up. */
+  private void sync(long currentGeneration) {
+    long now = System.currentTimeMillis();
+    long since;
+    boolean wasLoaded;
+    lock.readLock().lock();
+    try {
+      if (isCurrent(currentGeneration, now)) {
+        // Another request synced while this one waited.
+        return;
+      }
+      since = syncedAt - CATCH_UP_OVERLAP_MS;
+      wasLoaded = loaded;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    if (!wasLoaded || getPurgeTime(datastore) > purgedAt) {
+      rebuild(datastore, currentGeneration);
+      return;
+    }
+
+    // The caller read the generation before this query, so a write racing with it leaves the
+    // index stale.
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate(UPDATED_PROPERTY, FilterOperator.GREATER_THAN_OR_EQUAL,
+            since));
+    List<Entity> changed = new ArrayList<>();
+    for (Entity entity : datastore.prepare(query)
+        .asIterable(FetchOptions.Builder.withChunkSize(REBUILD_CHUNK_SIZE))) {
+      changed.add(entity);
+    }
+    // New comments get document numbers in the order they were posted.
+    changed.sort(Comparator.comparingLong(CommentIndex::getTimestamp));
+
+    lock.writeLock().lock();
+    try {
+      for (Entity entity : changed) {
+        if (documents.contains(entity.getKey())) {
+          documents.update(entity.getKey(), CommentFeed.getCommentJson(entity));
+        } else {
+          add(documents, entity);
+        }
+      }
+      if (currentGeneration != generation) {
+        changedAt = now;
+      }
+      generation = currentGeneration;
+      syncedAt = now;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Loads every comment from Datastore, replacing what the index held. Needs syncLock. */
+  private void rebuild(DatastoreService datastore, long currentGeneration) {
+    // Read the generation and purge time before querying, so that a write or purge racing with
+    // the query leaves the index stale.
+    long now = System.currentTimeMillis();
+    long purgeTime = getPurgeTime(datastore);
+    Documents rebuilt = new Documents();
+    Query query = new Query("Comment").addSort("timestamp", SortDirection.ASCENDING);
+    for (Entity entity : datastore.prepare(query)
+        .asIterable(FetchOptions.Builder.withChunkSize(REBUILD_CHUNK_SIZE))) {
+      add(rebuilt, entity);
+    }
+
+    lock.writeLock().lock();
+    try {
+      documents = rebuilt;
+      generation = currentGeneration;
+      loaded = true;
+      syncedAt = now;
+      changedAt = now;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    purgedAt = purgeTime;
+  }
+
+  private static void add(Documents documents, Entity entity) {
+    String name = (String) entity.getProperty("name");
+    String text = (String) entity.getProperty("text");
+    String email = (String) entity.getProperty("email");
+    documents.add(entity.getKey(), getAuthor(name, email), text,
+        CommentFeed.getCommentJson(entity));
+  }
+
+  private static long getTimestamp(Entity entity) {
+    Long timestamp = (Long) entity.getProperty("timestamp");
+    return timestamp == null ? 0 : timestamp;
+  }
+
+  /** Returns the time recorded by the latest recordPurge(), or 0 if there was none. */
+  private static long getPurgeTime(DatastoreService datastore) {
+    try {
+      return (Long) datastore.get(PURGE_KEY).getProperty("time");
+    } catch (EntityNotFoundException e) {
+      return 0;
+    }
+  }
+
+  /** One page of search results. */
+  public static final class SearchResults {
+
+    private final List<String> commentJson;
+    private final int total;
+
+    SearchResults(List<String> commentJson, int total) {
+      this.commentJson = commentJson;
+      this.total = total;
+    }
+
+    /** Returns the JSON object of each comment on this page. */
+    public List<String> getCommentJson() {
+      return commentJson;
+    }
+
+    /** Returns the number of comments that matched, across all pages. */
+    public int getTotal() {
+      return total;
+    }
+  }
+
+  /** The indexed comments and the posting list of every word in them. */
+  static final class Documents {
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Key, Integer> docsByKey = new HashMap<>();
+    private final List<String> json = new ArrayList<>();
+    private final BitSet deleted = new BitSet();
+
+    void add(Key key, String author, String text, String commentJson) {
+      // Posting the same comment twice would break the sorted posting lists, so replace it.
+      remove(key);
+      int doc = json.size();
+      json.add(commentJson);
+      docsByKey.put(key, doc);
+
+      Map<String, Integer> counts = new LinkedHashMap<>();
+      for (String term : tokenize(author)) {
+        counts.merge(term, 1, Integer::sum);
+      }
+      for (String term : tokenize(text)) {
+        counts.merge(term, 1, Integer::sum);
+      }
+      for (Map.Entry<String, Integer> count : counts.entrySet()) {
+        postings.computeIfAbsent(count.getKey(), term -> new Postings())
+            .append(doc, count.getValue());
+      }
+    }
+
+    boolean contains(Key key) {
+      return docsByKey.containsKey(key);
+    }
+
+    void update(Key key, String commentJson) {
+      Integer doc = docsByKey.get(key);
+      if (doc != null) {
+        json.set(doc, commentJson);
+      }
+    }
+
+    void remove(Key key) {
+      Integer doc = docsByKey.remove(key);
+      if (doc != null) {
+        // Posting lists keep the number and skip it; the next rebuild drops it for good.
+        deleted.set(doc);
+        json.set(doc, null);
+      }
+    }
+
+    SearchResults search(List<String> terms, int offset, int limit) {
+      // Intersect the shortest lists first, since the result can't be longer than any of them.
+      Postings[] lists = new Postings[terms.size()];
+      for (int i = 0; i < lists.length; i++) {
+        lists[i] = postings.get(terms.get(i));
+        if (lists[i] == null) {
+          return new SearchResults(new ArrayList<>(), 0);
+        }
+      }
+      Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+      int liveDocs = docsByKey.size();
+      int[] matches = new int[lists[0].size];
+      double[] scores = new double[lists[0].size];
+      int matchCount = 0;
+      int[] positions = new int[lists.length];
+      candidates:
+      for (int i = 0; i < lists[0].size; i++) {
+        int doc = lists[0].docs[i];
+        if (deleted.get(doc)) {
+          continue;
+        }
+        double score = lists[0].score(i, liveDocs);
+        for (int j = 1; j < lists.length; j++) {
+          int position = lists[j].seek(doc, positions[j]);
+          positions[j] = position;
+          if (position == lists[j].size || lists[j].docs[position] != doc) {
+            continue candidates;
+          }
+          score += lists[j].score(position, liveDocs);
+        }
+        matches[matchCount] = doc;
+        scores[matchCount] = score;
+        matchCount++;
+      }
+
+      // Best score first, then newest first. Only the requested page needs to be in order.
+      Integer[] order = new Integer[matchCount];
+      for (int i = 0; i < matchCount; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> {
+        int byScore = Double.compare(scores[b], scores[a]);
+        return byScore != 0 ? byScore : Integer.compare(matches[b], matches[a]);
+      });
+
+      List<String> page = new ArrayList<>(limit);
+      for (int i = offset; i < matchCount && page.size() < limit; i++) {
+        page.add(json.get(matches[order[i]]));
+      }
+      return new SearchResults(page, matchCount);
+    }
+  }
+
+  /** Sorted document numbers containing one word, and how often the word occurs in each. */
+  static final class Postings {
+
+    int[] docs = new int[4];
+    int[] frequencies = new int[4];
+    int size = 0;
+
+    void append(int doc, int frequency) {
+      if (size == docs.length) {
+        docs = Arrays.copyOf(docs, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      docs[size] = doc;
+      frequencies[size] = frequency;
+      size++;
+    }
+
+    /** Returns the first position at or after `from` whose document is not less than `doc`. */
+    int seek(int doc, int from) {
+      // Gallop ahead to bracket the document, then binary search inside the bracket.
+      int step = 1;
+      int high = from;
+      while (high < size && docs[high] < doc) {
+        from = high + 1;
+        high += step;
+        step *= 2;
+      }
+      int index = Arrays.binarySearch(docs, from, Math.min(high + 1, size), doc);
+      return index >= 0 ? index : -index - 1;
+    }
+
+    /** Returns the tf-idf weight of the word in the document at `position`. */
+    double score(int position, int liveDocs) {
+      double idf = Math.log(1.0 + (double) liveDocs / size);
+      return (1.0 + Math.log(frequencies[position])) * idf;
+    }
+  }
+}
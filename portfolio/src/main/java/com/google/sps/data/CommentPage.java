@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Class containing one page of comments and the cursor for the page after it.
+ *
+ * <p>Comments are held as the JSON fragments rendered when they were posted, so the page is
+ * written by concatenating them rather than by mapping objects to JSON.
+ */
+public final class CommentPage {
+
+  private static final Gson GSON = new Gson();
+
+  private final List<String> commentJson;
+  private final String cursor;
+
+  public CommentPage(List<String> commentJson, String cursor) {
+    this.commentJson = commentJson;
+    this.cursor = cursor;
+  }
+
+  /** Returns the JSON object of each comment on this page. */
+  public List<String> getCommentJson() {
+    return commentJson;
+  }
+
+  /** Returns the web-safe cursor for the next page, or null if this is the last page. */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /** Writes this page as {"comments": [...], "cursor": "..."}. */
+  public void writeJson(Writer writer) throws IOException {
+    writer.write("{\"comments\":[");
+    for (int i = 0; i < commentJson.size(); i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      writer.write(commentJson.get(i));
+    }
+    writer.write("]");
+    if (cursor != null) {
+      writer.write(",\"cursor\":");
+      writer.write(GSON.toJson(cursor));
+    }
+    writer.write("}");
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts Comment entities to and from the JSON objects used by export and import, one comment
+ * per line.
+ *
+ * <p>A record holds the comment's key as "id" or "keyName" and its properties under "properties".
+ * Keeping the key makes importing the same record twice harmless.
+ */
+public final class CommentRecords {
+
+  /** Properties stored as Text, which Datastore never indexes. */
+  private static final Set<String> TEXT_PROPERTIES = new HashSet<>(Arrays.asList("entry", "json"));
+
+  /** Other properties that are stored without an index. */
+  private static final Set<String> UNINDEXED_PROPERTIES =
+      new HashSet<>(Arrays.asList("srcset", "sentiment", "imageHash", "imageWidth",
+          "imageHeight", "imageColor", "imagePlaceholder"));
+
+  private CommentRecords() {}
+
+  /** Returns the record for a Comment entity. */
+  public static JsonObject toRecord(Entity entity) {
+    JsonObject record = new JsonObject();
+    Key key = entity.getKey();
+    if (key.getName() != null) {
+      record.addProperty("keyName", key.getName());
+    } else {
+      record.addProperty("id", key.getId());
+    }
+
+    JsonObject properties = new JsonObject();
+    for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+      properties.add(property.getKey(), toJson(property.getValue()));
+    }
+    record.add("properties", properties);
+    return record;
+  }
+
+  /**
+   * Returns the Comment entity a record describes.
+   *
+   * @throws IllegalArgumentException if the record is not a comment record
+   */
+  public static Entity fromRecord(JsonObject record) {
+    Entity entity;
+    if (record.has("keyName")) {
+      entity = new Entity(KeyFactory.createKey("Comment", record.get("keyName").getAsString()));
+    } else if (record.has("id")) {
+      entity = new Entity(KeyFactory.createKey("Comment", record.get("id").getAsLong()));
+    } else {
+      throw new IllegalArgumentException("Record has no keyName or id.");
+    }
+
+    JsonElement properties = record.get("properties");
+    if (properties == null || !properties.isJsonObject()) {
+      throw new IllegalArgumentException("Record has no properties.");
+    }
+    for (Map.Entry<String, JsonElement> property : properties.getAsJsonObject().entrySet()) {
+      String name = property.getKey();
+      Object value = fromJson(property.getValue());
+      if (TEXT_PROPERTIES.contains(name) && value instanceof String) {
+        entity.setUnindexedProperty(name, new Text((String) value));
+      } else if (UNINDEXED_PROPERTIES.contains(name)) {
+        entity.setUnindexedProperty(name, value);
+      } else {
+        entity.setProperty(name, value);
+      }
+    }
+    return entity;
+  }
+
+  private static JsonElement toJson(Object value) {
+    if (value instanceof Text) {
+      return new JsonPrimitive(((Text) value).getValue());
+    } else if (value instanceof String) {
+      return new JsonPrimitive((String) value);
+    } else if (value instanceof Number) {
+      return new JsonPrimitive((Number) value);
+    } else if (value instanceof Boolean) {
+      return new JsonPrimitive((Boolean) value);
+    } else if (value == null) {
+      return JsonNull.INSTANCE;
+    }
+    throw new IllegalArgumentException(
+        "Comments have no " + value.getClass().getName() + " properties.");
+  }
+
+  private static Object fromJson(JsonElement value) {
+    if (value == null || value.isJsonNull()) {
+      return null;
+    }
+    if (!value.isJsonPrimitive()) {
+      throw new IllegalArgumentException("Property values must be strings, numbers or booleans.");
+    }
+    JsonPrimitive primitive = value.getAsJsonPrimitive();
+    if (primitive.isBoolean()) {
+      return primitive.getAsBoolean();
+    } else if (primitive.isNumber()) {
+      // Datastore stores whole numbers as longs and the rest as doubles.
+      String number = primitive.getAsString();
+      if (number.contains(".") || number.contains("e") || number.contains("E")) {
+        return primitive.getAsDouble();
+      }
+      return primitive.getAsLong();
+    }
+    return primitive.getAsString();
+  }
+}
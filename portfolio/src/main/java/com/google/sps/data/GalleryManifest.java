@@ -0,0 +1,190 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.servlet.ServletContext;
+
+/**
+ * The photos of every gallery, read once from the webapp's /images directory.
+ *
+ * <p>Each subdirectory of /images is a gallery named after it. A photo's size and the URLs of its
+ * resized copies come from WEB-INF/image-variants.json, which the build writes along with the
+ * copies. A photo the build didn't resize is served as is, with its size read from its header.
+ */
+public final class GalleryManifest {
+
+  private static final String IMAGES_PATH = "/images/";
+  private static final String VARIANTS_PATH = "/WEB-INF/image-variants.json";
+
+  /** Number of hex digits of the manifest hash used as its version. */
+  private static final int VERSION_LENGTH = 16;
+
+  private final Map<String, List<Photo>> galleries;
+  private final String version;
+
+  private GalleryManifest(Map<String, List<Photo>> galleries) {
+    this.galleries = galleries;
+    this.version = hash(new Gson().toJson(galleries));
+  }
+
+  /** Reads the photos of every gallery in the webapp. */
+  public static GalleryManifest scan(ServletContext context) throws IOException {
+    JsonObject variants = readVariants(context);
+
+    Map<String, List<Photo>> galleries = new TreeMap<>();
+    for (String galleryPath : getSortedPaths(context, IMAGES_PATH)) {
+      if (!galleryPath.endsWith("/")) {
+        continue;
+      }
+      List<Photo> photos = new ArrayList<>();
+      for (String path : getSortedPaths(context, galleryPath)) {
+        Photo photo = readPhoto(context, path, variants);
+        if (photo != null) {
+          photos.add(photo);
+        }
+      }
+      String name = galleryPath.substring(IMAGES_PATH.length(), galleryPath.length() - 1);
+      galleries.put(name, Collections.unmodifiableList(photos));
+    }
+    return new GalleryManifest(galleries);
+  }
+
+  /** Returns the photos of a gallery in name order, or null if there is no such gallery. */
+  public List<Photo> getPhotos(String gallery) {
+    return galleries.get(gallery);
+  }
+
+  /** Returns a hash of the whole manifest, which changes whenever any photo does. */
+  public String getVersion() {
+    return version;
+  }
+
+  private static Photo readPhoto(ServletContext context, String path, JsonObject variants)
+      throws IOException {
+    URL resource = context.getResource(path);
+    if (path.endsWith("/") || resource == null) {
+      return null;
+    }
+    long bytes = resource.openConnection().getContentLengthLong();
+    String name = path.substring(path.lastIndexOf('/') + 1);
+
+    JsonElement variant = variants.get(path.substring(1));
+    if (variant != null) {
+      JsonObject urls = variant.getAsJsonObject();
+      JsonElement webpSrcset = urls.get("webpSrcset");
+      return new Photo(name, path, bytes,
+          urls.get("width").getAsInt(),
+          urls.get("height").getAsInt(),
+          urls.get("src").getAsString(),
+          urls.get("srcset").getAsString(),
+          webpSrcset == null ? null : webpSrcset.getAsString());
+    }
+
+    // Read the size from the header without decoding the pixels.
+    try (InputStream in = resource.openStream();
+        ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(imageIn, true, true);
+        return new Photo(name, path, bytes, reader.getWidth(0), reader.getHeight(0), path, null,
+            null);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /** Returns the variants listed by the build, or an empty object if it didn't list any. */
+  private static JsonObject readVariants(ServletContext context) throws IOException {
+    InputStream in = context.getResourceAsStream(VARIANTS_PATH);
+    if (in == null) {
+      return new JsonObject();
+    }
+    try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+      return JsonParser.parseReader(reader).getAsJsonObject();
+    }
+  }
+
+  private static Set<String> getSortedPaths(ServletContext context, String directory) {
+    Set<String> paths = context.getResourcePaths(directory);
+    return paths == null ? Collections.emptySet() : new TreeSet<>(paths);
+  }
+
+  private static String hash(String content) {
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < VERSION_LENGTH / 2; i++) {
+        hex.append(String.format("%02x", digest[i]));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Every JVM supports SHA-256.", e);
+    }
+  }
+
+  /** A photo in a gallery, as the gallery pages receive it. */
+  public static final class Photo {
+
+    private final String name;
+    private final String url;
+    private final long bytes;
+    private final int width;
+    private final int height;
+    private final String src;
+    private final String srcset;
+    private final String webpSrcset;
+
+    private Photo(String name, String url, long bytes, int width, int height, String src,
+        String srcset, String webpSrcset) {
+      this.name = name;
+      this.url = url;
+      this.bytes = bytes;
+      this.width = width;
+      this.height = height;
+      this.src = src;
+      this.srcset = srcset;
+      this.webpSrcset = webpSrcset;
+    }
+  }
+}
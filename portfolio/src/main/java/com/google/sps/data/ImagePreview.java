@@ -0,0 +1,89 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import java.io.Serializable;
+
+/**
+ * What the page needs to lay out a comment image before it loads: its size in pixels, its dominant
+ * color and a tiny copy of it as a data URL.
+ */
+public final class ImagePreview implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int width;
+  private final int height;
+  private final String color;
+  private final String placeholder;
+
+  public ImagePreview(int width, int height, String color, String placeholder) {
+    this.width = width;
+    this.height = height;
+    this.color = color;
+    this.placeholder = placeholder;
+  }
+
+  /** Returns the preview stored on an entity by setProperties(), or null if there is none. */
+  public static ImagePreview fromProperties(Entity entity) {
+    Long width = (Long) entity.getProperty("imageWidth");
+    Long height = (Long) entity.getProperty("imageHeight");
+    if (width == null || height == null) {
+      return null;
+    }
+    return new ImagePreview(
+        width.intValue(),
+        height.intValue(),
+        (String) entity.getProperty("imageColor"),
+        (String) entity.getProperty("imagePlaceholder"));
+  }
+
+  /** Stores the preview on an entity, unindexed. */
+  public void setProperties(Entity entity) {
+    entity.setUnindexedProperty("imageWidth", (long) width);
+    entity.setUnindexedProperty("imageHeight", (long) height);
+    entity.setUnindexedProperty("imageColor", color);
+    entity.setUnindexedProperty("imagePlaceholder", placeholder);
+  }
+
+  /** Removes a preview stored by setProperties() from an entity. */
+  public static void removeProperties(Entity entity) {
+    entity.removeProperty("imageWidth");
+    entity.removeProperty("imageHeight");
+    entity.removeProperty("imageColor");
+    entity.removeProperty("imagePlaceholder");
+  }
+
+  /** Returns the width in pixels of the original image. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Returns the height in pixels of the original image. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** Returns the most common color of the image as a CSS hex color. */
+  public String getColor() {
+    return color;
+  }
+
+  /** Returns a copy of the image a few pixels across, as a data URL. */
+  public String getPlaceholder() {
+    return placeholder;
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import javax.servlet.http.HttpServletRequest;
+
+/** Reads the page size a client asks for from a request parameter. */
+public final class PageSize {
+
+  private PageSize() {}
+
+  /**
+   * Returns the page size in the given parameter, clamped to between 1 and maxSize, or defaultSize
+   * if the parameter is missing or not a number.
+   */
+  public static int fromRequest(
+      HttpServletRequest request, String parameter, int defaultSize, int maxSize) {
+    String pageSizeString = request.getParameter(parameter);
+    if (pageSizeString == null) {
+      return defaultSize;
+    }
+
+    int pageSize;
+    try {
+      pageSize = Integer.parseInt(pageSizeString);
+    } catch (NumberFormatException e) {
+      System.err.println("Could not convert to int: " + pageSizeString);
+      return defaultSize;
+    }
+    return Math.max(1, Math.min(pageSize, maxSize));
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter that limits how fast comments can be posted, answering 429 instead of doing any work.
+ *
+ * <p>Each user and each IP address has a token bucket, so one client can post a short burst but
+ * not a steady stream. On top of that, only MAX_CONCURRENT_POSTS posts are handled at once on an
+ * instance; the rest are turned away immediately rather than queued, so reads don't slow down
+ * behind them. Only POSTs are limited.
+ */
+@WebFilter("/data")
+public final class RateLimitFilter implements Filter {
+
+  /** HttpServletResponse has no constant for 429 Too Many Requests. */
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  /** Comments a signed in user can post in a burst, and how fast they earn another. */
+  private static final int USER_BURST = 5;
+  private static final long USER_REFILL_MS = 10 * 1000;
+
+  /** Allowance per IP address, larger than per user since many users can share an address. */
+  private static final int IP_BURST = 20;
+  private static final long IP_REFILL_MS = 3 * 1000;
+
+  /** Most clients tracked by each limiter before the least recently seen are forgotten. */
+  private static final int MAX_TRACKED_CLIENTS = 10000;
+
+  /** Most posts handled at once on this instance. */
+  private static final int MAX_CONCURRENT_POSTS = 8;
+
+  private final TokenBucketLimiter userLimiter =
+      new TokenBucketLimiter(USER_BURST, USER_REFILL_MS, MAX_TRACKED_CLIENTS);
+  private final TokenBucketLimiter ipLimiter =
+      new TokenBucketLimiter(IP_BURST, IP_REFILL_MS, MAX_TRACKED_CLIENTS);
+  private final Semaphore postsInFlight = new Semaphore(MAX_CONCURRENT_POSTS);
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    if (!"POST".equals(httpRequest.getMethod())) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    // Check the rate limits first: they are cheap, and a client over them shouldn't hold a slot.
+    User user = UserServiceFactory.getUserService().getCurrentUser();
+    String userKey = user == null ? null : user.getUserId();
+    String ipKey = httpRequest.getRemoteAddr();
+    if (userKey != null && !userLimiter.tryAcquire(userKey)) {
+      reject(httpRequest, httpResponse, userLimiter.getRetryAfterMs());
+      return;
+    }
+    if (!ipLimiter.tryAcquire(ipKey)) {
+      if (userKey != null) {
+        userLimiter.refund(userKey);
+      }
+      reject(httpRequest, httpResponse, ipLimiter.getRetryAfterMs());
+      return;
+    }
+
+    if (!postsInFlight.tryAcquire()) {
+      // The instance is busy, not the client, so it gets its tokens back.
+      if (userKey != null) {
+        userLimiter.refund(userKey);
+      }
+      ipLimiter.refund(ipKey);
+      reject(httpRequest, httpResponse, 1000);
+      return;
+    }
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      postsInFlight.release();
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  /** Answers 429, deleting any image the rejected comment uploaded to Blobstore on its way here. */
+  private static void reject(
+      HttpServletRequest request, HttpServletResponse response, long retryAfterMs)
+      throws IOException {
+    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+    List<BlobKey> uploads = new ArrayList<>();
+    try {
+      for (List<BlobKey> blobKeys : blobstoreService.getUploads(request).values()) {
+        uploads.addAll(blobKeys);
+      }
+    } catch (IllegalStateException e) {
+      // Not a Blobstore upload, so there is nothing to clean up.
+    }
+    if (!uploads.isEmpty()) {
+      blobstoreService.delete(uploads.toArray(new BlobKey[0]));
+    }
+
+    response.setHeader("Retry-After", String.valueOf((retryAfterMs + 999) / 1000));
+    response.sendError(SC_TOO_MANY_REQUESTS, "Too many comments. Try again later.");
+  }
+}
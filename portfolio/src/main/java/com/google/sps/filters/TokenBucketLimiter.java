@@ -0,0 +1,155 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token buckets for many clients, each holding up to `capacity` tokens and refilling at a steady
+ * rate.
+ *
+ * <p>Buckets are spread over independently locked stripes, so clients in different stripes never
+ * wait on each other. A bucket that has been idle long enough to refill completely is the same as
+ * a new one, so it is dropped; each stripe also drops its least recently used buckets past a size
+ * limit, which only ever forgives a client rather than punishing one.
+ */
+final class TokenBucketLimiter {
+
+  private static final int STRIPE_COUNT = 16;
+
+  private final double capacity;
+  private final double tokensPerMs;
+  private final long refillTimeMs;
+  private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+  /**
+   * @param capacity most tokens a client can save up, i.e. the largest burst it may send
+   * @param refillPeriodMs time in milliseconds for one token to come back
+   * @param maxClients most buckets kept in memory
+   */
+  TokenBucketLimiter(int capacity, long refillPeriodMs, int maxClients) {
+    this.capacity = capacity;
+    this.tokensPerMs = 1.0 / refillPeriodMs;
+    this.refillTimeMs = capacity * refillPeriodMs;
+    int maxBucketsPerStripe = Math.max(1, maxClients / STRIPE_COUNT);
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe(maxBucketsPerStripe);
+    }
+  }
+
+  /** Takes a token from the client's bucket. Returns false if the bucket is empty. */
+  boolean tryAcquire(String client) {
+    return tryAcquire(client, System.currentTimeMillis());
+  }
+
+  /** Takes a token as of time `now` in milliseconds. */
+  boolean tryAcquire(String client, long now) {
+    return stripeFor(client).tryAcquire(client, now);
+  }
+
+  /** Gives back a token taken by tryAcquire(), e.g. when another limit rejected the request. */
+  void refund(String client) {
+    refund(client, System.currentTimeMillis());
+  }
+
+  /** Gives back a token as of time `now` in milliseconds. */
+  void refund(String client, long now) {
+    stripeFor(client).refund(client, now);
+  }
+
+  /** Returns the time in milliseconds for an empty bucket to earn one token. */
+  long getRetryAfterMs() {
+    return (long) Math.ceil(1 / tokensPerMs);
+  }
+
+  private Stripe stripeFor(String client) {
+    // Spread the hash bits so that similar keys, like neighbouring IPs, use different stripes.
+    int hash = client.hashCode();
+    hash ^= hash >>> 16;
+    return stripes[Math.floorMod(hash, STRIPE_COUNT)];
+  }
+
+  /** Tokens left in one client's bucket as of the last time it was used. */
+  private static final class Bucket {
+    double tokens;
+    long updatedAt;
+
+    Bucket(double tokens, long updatedAt) {
+      this.tokens = tokens;
+      this.updatedAt = updatedAt;
+    }
+  }
+
+  /** Buckets for the clients whose keys hash to one stripe, least recently used first. */
+  private final class Stripe {
+
+    private final Map<String, Bucket> buckets;
+
+    Stripe(int maxBuckets) {
+      buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+          return size() > maxBuckets;
+        }
+      };
+    }
+
+    synchronized boolean tryAcquire(String client, long now) {
+      evictIdle(now);
+      Bucket bucket = buckets.get(client);
+      if (bucket == null) {
+        bucket = new Bucket(capacity, now);
+        buckets.put(client, bucket);
+      } else {
+        refill(bucket, now);
+      }
+
+      if (bucket.tokens < 1) {
+        return false;
+      }
+      bucket.tokens -= 1;
+      return true;
+    }
+
+    synchronized void refund(String client, long now) {
+      // Getting the bucket moves it to the end of the access order, so its time must move too.
+      Bucket bucket = buckets.get(client);
+      if (bucket != null) {
+        refill(bucket, now);
+        bucket.tokens = Math.min(capacity, bucket.tokens + 1);
+      }
+    }
+
+    /** Adds the tokens earned since the bucket was last used and marks it used now. */
+    private void refill(Bucket bucket, long now) {
+      bucket.tokens = Math.min(capacity, bucket.tokens + (now - bucket.updatedAt) * tokensPerMs);
+      bucket.updatedAt = now;
+    }
+
+    /** Drops buckets that have had time to fill up again, oldest first. */
+    private void evictIdle(long now) {
+      Iterator<Bucket> iterator = buckets.values().iterator();
+      while (iterator.hasNext()) {
+        if (now - iterator.next().updatedAt < refillTimeMs) {
+          // Buckets are in order of last use, so every later one is more recent.
+          return;
+        }
+        iterator.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.images;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the EXIF orientation of a JPEG and applies it to the decoded pixels.
+ *
+ * <p>ImageIO ignores the orientation, so a photo taken with a rotated camera decodes sideways while
+ * browsers show it upright. Used both by the build's StaticAssetOptimizer and for uploaded images.
+ */
+public final class ExifOrientation {
+
+  private ExifOrientation() {}
+
+  /** Rotates and flips an image as described by an EXIF orientation value. */
+  public static BufferedImage apply(BufferedImage image, int orientation) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    AffineTransform transform;
+    switch (orientation) {
+      case 2:
+        transform = new AffineTransform(-1, 0, 0, 1, width, 0);
+        break;
+      case 3:
+        transform = new AffineTransform(-1, 0, 0, -1, width, height);
+        break;
+      case 4:
+        transform = new AffineTransform(1, 0, 0, -1, 0, height);
+        break;
+      case 5:
+        transform = new AffineTransform(0, 1, 1, 0, 0, 0);
+        break;
+      case 6:
+        transform = new AffineTransform(0, 1, -1, 0, height, 0);
+        break;
+      case 7:
+        transform = new AffineTransform(0, -1, -1, 0, height, width);
+        break;
+      case 8:
+        transform = new AffineTransform(0, -1, 1, 0, 0, width);
+        break;
+      default:
+        return image;
+    }
+
+    boolean swapsSides = orientation >= 5;
+    BufferedImage oriented = new BufferedImage(
+        swapsSides ? height : width, swapsSides ? width : height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = oriented.createGraphics();
+    try {
+      graphics.drawImage(image, transform, null);
+    } finally {
+      graphics.dispose();
+    }
+    return oriented;
+  }
+
+  /** Returns the EXIF orientation of a JPEG, or 1 (upright) if it has none or isn't a JPEG. */
+  public static int read(byte[] jpeg) {
+    try {
+      if ((jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+        return 1;
+      }
+      int position = 2;
+      while (position + 4 <= jpeg.length && (jpeg[position] & 0xFF) == 0xFF) {
+        int marker = jpeg[position + 1] & 0xFF;
+        if (marker == 0xDA || marker == 0xD9) {
+          // The image data starts here, so there are no more metadata segments.
+          return 1;
+        }
+        int length = readShort(jpeg, position + 2, false);
+        String segmentId = new String(jpeg, position + 4, 4, StandardCharsets.US_ASCII);
+        if (marker == 0xE1 && segmentId.equals("Exif")) {
+          int tiff = position + 10;
+          boolean littleEndian = jpeg[tiff] == 'I';
+          int ifd = tiff + readInt(jpeg, tiff + 4, littleEndian);
+          int entryCount = readShort(jpeg, ifd, littleEndian);
+          for (int i = 0; i < entryCount; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (readShort(jpeg, entry, littleEndian) == 0x0112) {
+              return readShort(jpeg, entry + 8, littleEndian);
+            }
+          }
+          return 1;
+        }
+        position += 2 + length;
+      }
+    } catch (IndexOutOfBoundsException e) {
+      // Malformed EXIF data; treat the image as upright.
+    }
+    return 1;
+  }
+
+  private static int readShort(byte[] bytes, int offset, boolean littleEndian) {
+    int first = bytes[offset] & 0xFF;
+    int second = bytes[offset + 1] & 0xFF;
+    return littleEndian ? (second << 8) | first : (first << 8) | second;
+  }
+
+  private static int readInt(byte[] bytes, int offset, boolean littleEndian) {
+    int high = readShort(bytes, offset + (littleEndian ? 2 : 0), littleEndian);
+    int low = readShort(bytes, offset + (littleEndian ? 0 : 2), littleEndian);
+    return (high << 16) | low;
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.images;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images down smoothly. Used both by the build's StaticAssetOptimizer and for uploaded
+ * images.
+ */
+public final class ImageResizer {
+
+  private ImageResizer() {}
+
+  /**
+   * Scales an image down so its longest side is at most maxSize, never scaling it up.
+   *
+   * @param keepAlpha whether to keep transparency, which JPEG can't store
+   */
+  public static BufferedImage resize(BufferedImage image, int maxSize, boolean keepAlpha) {
+    int type = keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    int longestSide = Math.max(image.getWidth(), image.getHeight());
+    double scale = Math.min(1.0, (double) maxSize / longestSide);
+    int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+    // Halve the image until it is close to the target size; a single bilinear step from a large
+    // photo skips most of its pixels and looks jagged.
+    BufferedImage current = image;
+    do {
+      int width = Math.max(targetWidth, current.getWidth() / 2);
+      int height = Math.max(targetHeight, current.getHeight() / 2);
+      BufferedImage next = new BufferedImage(width, height, type);
+      Graphics2D graphics = next.createGraphics();
+      try {
+        graphics.setRenderingHint(
+            RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(current, 0, 0, width, height, null);
+      } finally {
+        graphics.dispose();
+      }
+      current = next;
+    } while (current.getWidth() != targetWidth || current.getHeight() != targetHeight);
+    return current;
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.PageSize;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns everything the portfolio page needs when it loads: the login status and
+ * URL, the first page of comments and, for logged in users, the image upload URL.
+ *
+ * <p>This replaces separate requests to /login, /data and /image-upload-url. The login URL and
+ * upload URL are each an RPC, so they are fetched on request threads while this thread reads the
+ * comments.
+ */
+@WebServlet("/bootstrap")
+public class BootstrapServlet extends HttpServlet {
+
+  private static final Gson GSON = new Gson();
+
+  /** Number of comments returned when the client does not ask for a page size. */
+  private static final int DEFAULT_PAGE_SIZE = 3;
+
+  /** Largest page the client may ask for, matching the max of the comment-quantity input. */
+  private static final int MAX_PAGE_SIZE = CommentCache.CAPACITY;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    String urlToRedirectTo = "/index.html";
+    boolean loggedIn = userService.isUserLoggedIn();
+    int maxComments = PageSize.fromRequest(request, "comments", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+
+    String userUrl;
+    String uploadUrl = null;
+    CommentPage page;
+    ExecutorService executor =
+        Executors.newCachedThreadPool(ThreadManager.currentRequestThreadFactory());
+    try {
+      Future<String> userUrlFuture = executor.submit(() -> loggedIn
+          ? userService.createLogoutURL(urlToRedirectTo)
+          : userService.createLoginURL(urlToRedirectTo));
+      // Only logged in users see the comment form, so only they need somewhere to upload to.
+      Future<String> uploadUrlFuture = !loggedIn ? null : executor.submit(
+          () -> BlobstoreServiceFactory.getBlobstoreService().createUploadUrl("/data"));
+
+      page = CommentFeed.getFirstPage(maxComments);
+      userUrl = await(userUrlFuture);
+      if (uploadUrlFuture != null) {
+        uploadUrl = await(uploadUrlFuture);
+      }
+    } finally {
+      // Request threads may not outlive the request.
+      executor.shutdownNow();
+    }
+
+    // The upload URL is single use and the rest depends on the user, so none of it may be cached.
+    response.setHeader("Cache-Control", "no-store");
+    response.setContentType("application/json");
+    PrintWriter writer = response.getWriter();
+    writer.write("{\"status\":" + loggedIn);
+    writer.write(",\"url\":" + GSON.toJson(userUrl));
+    if (uploadUrl != null) {
+      writer.write(",\"uploadUrl\":" + GSON.toJson(uploadUrl));
+    }
+    writer.write(",\"page\":");
+    page.writeJson(writer);
+    writer.write("}");
+  }
+
+  /** Waits for a part of the response that is fetched on another thread. */
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading the page.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not load the page.", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.tasks.ImageVariants;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that serves comment image variants that were resized without ImagesService. */
+@WebServlet("/comment-image")
+public class CommentImageServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String name = request.getParameter("name");
+    if (name == null || name.isEmpty()) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing image name.");
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity imageEntity;
+    try {
+      imageEntity = datastore.get(KeyFactory.createKey(ImageVariants.KIND, name));
+    } catch (EntityNotFoundException e) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    // A variant never changes once it is written, so browsers can keep it.
+    byte[] data = ((Blob) imageEntity.getProperty("data")).getBytes();
+    response.setContentType((String) imageEntity.getProperty("contentType"));
+    response.setContentLength(data.length);
+    response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    response.getOutputStream().write(data);
+  }
+}
@@ -15,33 +15,36 @@
 package com.google.sps.servlets;
 
 import com.google.sps.data.Comment;
-import java.util.ArrayList;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.PageSize;
+import com.google.sps.tasks.CommentAnalysisTask;
+import com.google.sps.tasks.CommentImageTask;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import com.google.gson.Gson;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import com.google.appengine.api.blobstore.BlobInfo;
-import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.ServingUrlOptions;
+import com.google.appengine.api.taskqueue.TaskHandle;
 
 
 
@@ -49,45 +52,50 @@ import com.google.appengine.api.images.ServingUrlOptions;
 @WebServlet("/data")
 public class DataServlet extends HttpServlet {
 
-  ArrayList<String> comments = new ArrayList<String>();
+  /** Number of comments returned when the client does not ask for a page size. */
+  private static final int DEFAULT_PAGE_SIZE = 3;
+
+  /** Largest page the client may ask for, matching the max of the comment-quantity input. */
+  private static final int MAX_PAGE_SIZE = CommentCache.CAPACITY;
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // Query all comments from Datastore.
-    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-
-    // Fill commentEntries arrayList with data from Datastore.
-    ArrayList<Comment> commentEntries = new ArrayList<Comment>();
-    for (Entity entity : results.asIterable()) {
-      // Determine the name to display.
-      String commentName = (String) entity.getProperty("name");
-      if(commentName.isEmpty()) {
-        commentName = (String) entity.getProperty("email");
+    // Answer clients that already have the current feed without reading any comments.
+    CommentCache.FeedVersion version = CommentCache.getInstance().getFeedVersion();
+    if (version != null) {
+      String etag = "\"" + version.getGeneration() + "\"";
+      response.setHeader("ETag", etag);
+      response.setDateHeader("Last-Modified", version.getLastModified());
+      // Browsers may keep the feed but must check it is still current before each use.
+      response.setHeader("Cache-Control", "no-cache");
+
+      if (isNotModified(request, etag, version.getLastModified())) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
       }
-
-      // Combine the name and the commentText together.
-      String commentText = (String) entity.getProperty("text");
-      String commentEntry = commentName + ": \"" + commentText + "\"";
-
-      String imageUrl = (String) entity.getProperty("imageUrl");
-
-      commentEntries.add(new Comment(commentEntry, imageUrl));
     }
 
-    // Trim commentEntries arrayList to be under the max comment amount.
-    int maxComments = Integer.parseInt(request.getParameter("comments"));
-    if(commentEntries.size() > maxComments) {
-      commentEntries.subList(maxComments, commentEntries.size()).clear();
+    int maxComments = PageSize.fromRequest(request, "comments", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+    String cursorString = request.getParameter("cursor");
+
+    CommentPage page;
+    if (cursorString == null || cursorString.isEmpty()) {
+      page = CommentFeed.getFirstPage(maxComments);
+    } else {
+      // Only read one page of comments from Datastore, starting at the cursor.
+      FetchOptions fetchOptions = FetchOptions.Builder.withLimit(maxComments);
+      try {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(cursorString));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+      page = CommentFeed.queryPage(fetchOptions, maxComments);
     }
 
-    // Convert to JSON and send it as the response.
-    Gson gson = new Gson();
-
+    // Stream the stored JSON of each comment into the response.
     response.setContentType("application/json");
-    response.getWriter().println(gson.toJson(commentEntries));
+    page.writeJson(response.getWriter());
   }
 
   @Override
@@ -98,25 +106,85 @@ public class DataServlet extends HttpServlet {
     String commentText = request.getParameter("comment-input");
     String commentName = request.getParameter("name-input");
     String userEmail = userService.getCurrentUser().getEmail();
-    String imageUrl = getUploadedFileUrl(request, "image-upload");
+    BlobKey blobKey = getUploadedBlobKey(request, "image-upload");
     long timestamp = System.currentTimeMillis();
 
-    Entity commentEntity = new Entity("Comment");
+    // Render the comment once here so that reads can send the stored JSON as is. The image URL is
+    // added later by CommentImageTask.
+    Comment comment = Comment.render(commentName, commentText, userEmail, null, null, null);
+    String commentJson = comment.toJson();
+
+    // The key is chosen here rather than by Datastore so the image task can be queued while the
+    // comment is still being written.
+    Entity commentEntity = new Entity("Comment", UUID.randomUUID().toString());
     commentEntity.setProperty("text", commentText);
     commentEntity.setProperty("name", commentName);
     commentEntity.setProperty("email", userEmail);
-    commentEntity.setProperty("imageUrl", imageUrl);
+    commentEntity.setProperty("imageUrl", null);
     commentEntity.setProperty("timestamp", timestamp);
-
-    // Store the Comment entity in Datastore.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.put(commentEntity);
+    commentEntity.setProperty(CommentIndex.UPDATED_PROPERTY, timestamp);
+    // Only set when there is an image, so the blob cleanup in DeleteServlet can project on it.
+    if (blobKey != null) {
+      commentEntity.setProperty("blobKey", blobKey.getKeyString());
+    }
+    commentEntity.setUnindexedProperty("entry", new Text(comment.getEntry()));
+    commentEntity.setUnindexedProperty("json", new Text(commentJson));
+    commentEntity.setProperty(CommentAnalysisTask.PENDING_PROPERTY, true);
+
+    // Store the Comment entity in Datastore and queue the image and analysis work at the same time.
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+    Future<Key> put = datastore.put(commentEntity);
+    Future<TaskHandle> imageTask = null;
+    if (blobKey != null) {
+      imageTask = CommentImageTask.enqueue(commentEntity.getKey(), blobKey);
+    }
+    Future<TaskHandle> analysisTask = CommentAnalysisTask.schedule();
+    await(put);
+    if (imageTask != null) {
+      await(imageTask);
+    }
+    try {
+      CommentAnalysisTask.awaitScheduled(analysisTask);
+    } catch (IOException e) {
+      // The comment is saved and stays pending, so the run a later comment schedules analyzes it.
+      System.err.println("Could not schedule comment analysis: " + e);
+    }
+    long generation = CommentCache.getInstance().addNewest(commentEntity.getKey(), commentJson);
+    CommentIndex.getInstance().add(commentEntity.getKey(),
+        CommentIndex.getAuthor(commentName, userEmail), commentText, commentJson, generation);
 
     response.sendRedirect("/index.html");
   }
 
-  /** Returns a URL that points to the uploaded file, or null if the user didn't upload a file. */
-  private String getUploadedFileUrl(HttpServletRequest request, String formInputElementName) {
+  /** Returns whether the client's cached copy, per its conditional headers, is still current. */
+  private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals(etag) || tag.equals("*")) {
+          return true;
+        }
+      }
+      // If-Modified-Since is ignored when If-None-Match is present.
+      return false;
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // HTTP dates only have second precision.
+    return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /** Returns the key of the uploaded file, or null if the user didn't upload a file. */
+  private BlobKey getUploadedBlobKey(HttpServletRequest request, String formInputElementName) {
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get(formInputElementName);
@@ -126,27 +194,20 @@ public class DataServlet extends HttpServlet {
       return null;
     }
 
-    // Our form only contains a single file input, so get the first index.
-    BlobKey blobKey = blobKeys.get(0);
-
-    // User submitted form without selecting a file, so we can't get a URL. (live server)
-    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-    if (blobInfo.getSize() == 0) {
-      blobstoreService.delete(blobKey);
-      return null;
-    }
-
-    // Use ImagesService to get a URL that points to the uploaded file.
-    ImagesService imagesService = ImagesServiceFactory.getImagesService();
-    ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
+    // Our form only contains a single file input, so get the first index. An empty upload from the
+    // live server is cleaned up by CommentImageTask.
+    return blobKeys.get(0);
+  }
 
-    // To support running in Google Cloud Shell with AppEngine's devserver, we must use the relative
-    // path to the image, rather than the path returned by imagesService which contains a host.
+  /** Waits for an asynchronous call made while handling the request. */
+  private static <T> T await(Future<T> future) throws IOException {
     try {
-      URL url = new URL(imagesService.getServingUrl(options));
-      return url.getPath();
-    } catch (MalformedURLException e) {
-      return imagesService.getServingUrl(options);
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving the comment.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not save the comment.", e.getCause());
     }
   }
 }
@@ -14,34 +14,273 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.tasks.ImageBlobs;
+import com.google.sps.tasks.ImageVariants;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import com.google.gson.Gson;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.gson.Gson;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet for deleting all comments at once*/
+/**
+ * Servlet for deleting all comments at once.
+ *
+ * <p>Comments with an image are deleted first, together with any blob no other comment uses, and
+ * then the rest of the comments. Both passes read keys without loading entities and delete them in
+ * batches. If the purge runs out of time, the response contains a cursor to post back to continue
+ * it.
+ */
 @WebServlet("/delete-data")
 public class DeleteServlet extends HttpServlet {
 
+  /** Most keys Datastore accepts in a single batch delete. */
+  private static final int BATCH_SIZE = 500;
+
+  /** Most batch deletes waiting on Datastore at once. */
+  private static final int MAX_BATCHES_IN_FLIGHT = 4;
+
+  /** Time spent deleting before handing a cursor back, well inside the request deadline. */
+  private static final long TIME_BUDGET_MS = 30 * 1000;
+
+  private static final String BLOBS_PHASE = "blobs";
+  private static final String COMMENTS_PHASE = "comments";
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // Query all comments from Datastore.
-    Query query = new Query("Comment");
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MS;
+
+    // The cursor is "<phase>:<web-safe Datastore cursor>".
+    String phase = BLOBS_PHASE;
+    Cursor startCursor = null;
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null && !cursorString.isEmpty()) {
+      int separator = cursorString.indexOf(':');
+      try {
+        phase = cursorString.substring(0, separator);
+        startCursor = Cursor.fromWebSafeString(cursorString.substring(separator + 1));
+      } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+      if (!phase.equals(BLOBS_PHASE) && !phase.equals(COMMENTS_PHASE)) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    Purge purge = new Purge(deadline);
+    String nextCursor = null;
+    boolean deletesFinished = false;
+    try {
+      if (phase.equals(BLOBS_PHASE)) {
+        Cursor blobsCursor = purge.deleteCommentsWithImages(startCursor);
+        if (blobsCursor != null) {
+          nextCursor = BLOBS_PHASE + ":" + blobsCursor.toWebSafeString();
+        } else {
+          startCursor = null;
+        }
+      }
+      if (nextCursor == null) {
+        Cursor commentsCursor = purge.deleteComments(startCursor);
+        if (commentsCursor != null) {
+          nextCursor = COMMENTS_PHASE + ":" + commentsCursor.toWebSafeString();
+        }
+      }
+      purge.awaitDeletes();
+      deletesFinished = true;
+    } finally {
+      // Some comments are gone even if the purge didn't finish.
+      CommentIndex.recordPurge();
+      long generation = CommentCache.getInstance().clear();
+      if (deletesFinished) {
+        CommentIndex.getInstance().remove(purge.deletedComments, generation);
+      } else {
+        // Some of the started deletes may have failed, so reload the index instead.
+        CommentIndex.getInstance().invalidate();
+      }
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("deleted", purge.commentsDeleted);
+    result.put("blobsDeleted", purge.blobsDeleted);
+    result.put("cursor", nextCursor);
+
+    response.setContentType("application/json");
+    response.getWriter().println(new Gson().toJson(result));
+  }
+
+  /** State of one request's worth of deleting. */
+  private static final class Purge {
+
+    private final long deadline;
+    private final AsyncDatastoreService datastore =
+        DatastoreServiceFactory.getAsyncDatastoreService();
+    private final DatastoreService syncDatastore = DatastoreServiceFactory.getDatastoreService();
+    private final BlobstoreService blobstoreService =
+        BlobstoreServiceFactory.getBlobstoreService();
+    private final Deque<Future<Void>> pendingDeletes = new ArrayDeque<>();
+    private final List<Key> deletedComments = new ArrayList<>();
+
+    private int commentsDeleted = 0;
+    private int blobsDeleted = 0;
+
+    Purge(long deadline) {
+      this.deadline = deadline;
+    }
+
+    /**
+     * Deletes comments that have an image, and the blobs and locally resized variants that no other
+     * comment uses. Returns the cursor to continue from, or null if they are all gone.
+     */
+    Cursor deleteCommentsWithImages(Cursor startCursor) throws IOException {
+      // Only comments with an image have a blobKey property, so a projection on it finds exactly
+      // those comments without loading them.
+      Query query = new Query("Comment");
+      query.addProjection(new PropertyProjection("blobKey", String.class));
+      QueryResultIterator<Entity> results = prepare(query, startCursor);
+
+      List<Key> keys = new ArrayList<>(BATCH_SIZE);
+      Map<BlobKey, Integer> references = new LinkedHashMap<>();
+      while (results.hasNext()) {
+        Entity entity = results.next();
+        keys.add(entity.getKey());
+        deletedComments.add(entity.getKey());
+        references.merge(new BlobKey((String) entity.getProperty("blobKey")), 1, Integer::sum);
+
+        if (keys.size() == BATCH_SIZE) {
+          // Only release the blobs once the comments using them are surely gone.
+          await(deleteBatch(keys, keys.size()));
+          releaseBlobs(references);
+          keys = new ArrayList<>(BATCH_SIZE);
+          references.clear();
+          if (System.currentTimeMillis() > deadline) {
+            return results.getCursor();
+          }
+        }
+      }
+      if (!keys.isEmpty()) {
+        await(deleteBatch(keys, keys.size()));
+        releaseBlobs(references);
+      }
+      return null;
+    }
+
+    /** Deletes every comment. Returns the cursor to continue from, or null if they are all gone. */
+    Cursor deleteComments(Cursor startCursor) throws IOException {
+      Query query = new Query("Comment").setKeysOnly();
+      QueryResultIterator<Entity> results = prepare(query, startCursor);
+
+      List<Key> keys = new ArrayList<>(BATCH_SIZE);
+      while (results.hasNext()) {
+        Key key = results.next().getKey();
+        keys.add(key);
+        deletedComments.add(key);
+
+        if (keys.size() == BATCH_SIZE) {
+          deleteBatch(keys, keys.size());
+          keys = new ArrayList<>(BATCH_SIZE);
+          if (System.currentTimeMillis() > deadline) {
+            return results.getCursor();
+          }
+        }
+      }
+      if (!keys.isEmpty()) {
+        deleteBatch(keys, keys.size());
+      }
+      return null;
+    }
+
+    /** Waits for every batch delete that was started to finish. */
+    void awaitDeletes() throws IOException {
+      while (!pendingDeletes.isEmpty()) {
+        await(pendingDeletes.poll());
+      }
+    }
+
+    /**
+     * Drops one reference per deleted comment from each blob, then deletes the blobs and local
+     * variants that nothing references any more.
+     */
+    private void releaseBlobs(Map<BlobKey, Integer> references) throws IOException {
+      List<BlobKey> unused = new ArrayList<>();
+      List<Key> variantKeys = new ArrayList<>(BATCH_SIZE);
+      for (Map.Entry<BlobKey, Integer> blob : references.entrySet()) {
+        if (!ImageBlobs.release(syncDatastore, blob.getKey(), blob.getValue())) {
+          continue;
+        }
+        unused.add(blob.getKey());
+        variantKeys.addAll(ImageVariants.getLocalKeys(blob.getKey()));
+        if (variantKeys.size() > BATCH_SIZE - ImageVariants.VARIANT_COUNT) {
+          deleteBatch(variantKeys, 0);
+          variantKeys = new ArrayList<>(BATCH_SIZE);
+        }
+      }
+      if (!variantKeys.isEmpty()) {
+        deleteBatch(variantKeys, 0);
+      }
+      if (!unused.isEmpty()) {
+        blobstoreService.delete(unused.toArray(new BlobKey[0]));
+        blobsDeleted += unused.size();
+      }
+    }
+
+    private QueryResultIterator<Entity> prepare(Query query, Cursor startCursor) {
+      FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(BATCH_SIZE);
+      if (startCursor != null) {
+        fetchOptions.startCursor(startCursor);
+      }
+      return datastore.prepare(query).asQueryResultIterator(fetchOptions);
+    }
+
+    /**
+     * Starts deleting a batch of keys, first waiting for the oldest batch if too many are open.
+     * Returns the delete, which awaitDeletes() also waits for.
+     *
+     * @param commentCount how many of the keys belong to comments
+     */
+    private Future<Void> deleteBatch(List<Key> keys, int commentCount) throws IOException {
+      if (pendingDeletes.size() >= MAX_BATCHES_IN_FLIGHT) {
+        await(pendingDeletes.poll());
+      }
+      Future<Void> delete = datastore.delete(keys);
+      pendingDeletes.add(delete);
+      commentsDeleted += commentCount;
+      return delete;
+    }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-    
-    // Delete all comments.
-    for(Entity entity: results.asIterable()) {
-      datastore.delete(entity.getKey());
+    private static void await(Future<Void> delete) throws IOException {
+      try {
+        delete.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while deleting comments.", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Could not delete comments.", e.getCause());
+      }
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonObject;
+import com.google.sps.data.CommentRecords;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that streams every comment as newline-delimited JSON, for admins to back up or migrate.
+ *
+ * <p>Comments are read through a cursor a chunk at a time and written as they arrive, so memory use
+ * doesn't grow with the number of comments. The last line is always a checkpoint record with the
+ * count and rate of this request; if it has a cursor, the export ran out of time and continues by
+ * requesting /data/export?cursor= with it.
+ */
+@WebServlet("/data/export")
+public class ExportServlet extends HttpServlet {
+
+  /** Comments read from Datastore per round trip, and written between flushes. */
+  private static final int CHUNK_SIZE = 500;
+
+  /** Time spent exporting before handing a cursor back, well inside the request deadline. */
+  private static final long TIME_BUDGET_MS = 45 * 1000;
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long start = System.currentTimeMillis();
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can export comments.");
+      return;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(CHUNK_SIZE);
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null && !cursorString.isEmpty()) {
+      try {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(cursorString));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    // Key order is stable and needs no composite index, so a cursor stays valid between requests.
+    Query query = new Query("Comment").addSort(Entity.KEY_RESERVED_PROPERTY);
+    QueryResultIterator<Entity> results = DatastoreServiceFactory.getDatastoreService()
+        .prepare(query).asQueryResultIterator(fetchOptions);
+
+    response.setContentType("application/x-ndjson");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+    PrintWriter writer = response.getWriter();
+
+    long exported = 0;
+    String nextCursor = null;
+    while (results.hasNext()) {
+      writer.print(CommentRecords.toRecord(results.next()).toString());
+      writer.print('\n');
+      exported++;
+
+      if (exported % CHUNK_SIZE == 0) {
+        // Send what has been written so far rather than holding it in the response buffer.
+        response.flushBuffer();
+        if (System.currentTimeMillis() - start > TIME_BUDGET_MS) {
+          if (results.hasNext()) {
+            nextCursor = results.getCursor().toWebSafeString();
+          }
+          break;
+        }
+      }
+    }
+
+    long elapsedMs = Math.max(1, System.currentTimeMillis() - start);
+    JsonObject checkpoint = new JsonObject();
+    checkpoint.addProperty("exported", exported);
+    checkpoint.addProperty("elapsedMs", elapsedMs);
+    checkpoint.addProperty("commentsPerSecond", exported * 1000 / elapsedMs);
+    checkpoint.addProperty("cursor", nextCursor);
+    JsonObject line = new JsonObject();
+    line.add("checkpoint", checkpoint);
+    writer.print(line.toString());
+    writer.print('\n');
+  }
+}
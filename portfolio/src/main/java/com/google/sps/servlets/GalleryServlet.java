@@ -0,0 +1,127 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.GalleryManifest;
+import com.google.sps.data.PageSize;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns a page of the photos in a gallery, so the gallery pages can load them as
+ * they are scrolled to.
+ *
+ * <p>Takes the gallery as ?name=, and returns its photos after ?cursor= as {"photos", "total",
+ * "cursor"}; the cursor is the number of photos already returned. The photos only change when the
+ * app is deployed, so each page has an ETag made from the manifest version.
+ */
+@WebServlet(value = "/gallery", loadOnStartup = 1)
+public class GalleryServlet extends HttpServlet {
+
+  /** Number of photos returned when the client does not ask for a page size. */
+  private static final int DEFAULT_PAGE_SIZE = 6;
+
+  /** Largest page the client may ask for. */
+  private static final int MAX_PAGE_SIZE = 30;
+
+  private GalleryManifest manifest;
+
+  @Override
+  public void init() {
+    // Scan the images when the instance starts rather than on the first request. If that fails,
+    // the first request scans them instead.
+    try {
+      getManifest();
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Could not read the gallery manifest: " + e);
+    }
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    List<GalleryManifest.Photo> photos = getManifest().getPhotos(request.getParameter("name"));
+    if (photos == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "No such gallery.");
+      return;
+    }
+    int pageSize = PageSize.fromRequest(request, "photos", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+
+    int offset = 0;
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null && !cursorString.isEmpty()) {
+      try {
+        offset = Integer.parseInt(cursorString);
+      } catch (NumberFormatException e) {
+        offset = -1;
+      }
+      if (offset < 0) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    // The page only depends on the manifest and the query, which already identifies the gallery,
+    // cursor and page size to caches.
+    String etag = "\"" + getManifest().getVersion() + "\"";
+    response.setHeader("ETag", etag);
+    // Browsers may keep the page but must check it is still current before each use.
+    response.setHeader("Cache-Control", "no-cache");
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    int start = Math.min(offset, photos.size());
+    int end = Math.min(start + pageSize, photos.size());
+    Map<String, Object> page = new LinkedHashMap<>();
+    page.put("photos", photos.subList(start, end));
+    page.put("total", photos.size());
+    page.put("cursor", end < photos.size() ? String.valueOf(end) : null);
+
+    response.setContentType("application/json");
+    response.getWriter().println(new Gson().toJson(page));
+  }
+
+  private synchronized GalleryManifest getManifest() throws IOException {
+    if (manifest == null) {
+      manifest = GalleryManifest.scan(getServletContext());
+    }
+    return manifest;
+  }
+
+  /** Returns whether an If-None-Match header lists the ETag. */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals(etag) || tag.equals("*")) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,196 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentRecords;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that writes comments posted as newline-delimited JSON, in the format /data/export
+ * produces, for admins restoring a backup or migrating.
+ *
+ * <p>The body is parsed a line at a time and written in batches, with a few batches in flight at
+ * once. Comments keep their keys, so importing a line twice is harmless. If the import runs out of
+ * time, the response gives the line to resume from: post the same body again with ?skip= set to
+ * it, or post only the lines from there on.
+ */
+@WebServlet("/data/import")
+public class ImportServlet extends HttpServlet {
+
+  /** Comments written per batch put. */
+  private static final int BATCH_SIZE = 500;
+
+  /** Most batch puts waiting on Datastore at once. */
+  private static final int MAX_BATCHES_IN_FLIGHT = 4;
+
+  /** Time spent importing before handing a checkpoint back, well inside the request deadline. */
+  private static final long TIME_BUDGET_MS = 45 * 1000;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long start = System.currentTimeMillis();
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Only admins can import comments.");
+      return;
+    }
+
+    long skip = 0;
+    String skipString = request.getParameter("skip");
+    if (skipString != null && !skipString.isEmpty()) {
+      try {
+        skip = Long.parseLong(skipString);
+      } catch (NumberFormatException e) {
+        skip = -1;
+      }
+      if (skip < 0) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid skip.");
+        return;
+      }
+    }
+
+    Batches batches = new Batches();
+    BufferedReader reader = request.getReader();
+    long lineNumber = 0;
+    Long resumeFrom = null;
+    String error = null;
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (lineNumber <= skip || line.trim().isEmpty()) {
+          continue;
+        }
+
+        Entity comment;
+        try {
+          JsonElement record = JsonParser.parseString(line);
+          if (record.isJsonObject() && record.getAsJsonObject().has("checkpoint")) {
+            continue;
+          }
+          comment = CommentRecords.fromRecord(record.getAsJsonObject());
+          comment.setProperty(CommentIndex.UPDATED_PROPERTY, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+          // Everything before this line is written, so the import can resume at it once it's fixed.
+          error = "Line " + lineNumber + " is not a comment record: " + e.getMessage();
+          resumeFrom = lineNumber - 1;
+          break;
+        }
+
+        if (batches.add(comment) && System.currentTimeMillis() - start > TIME_BUDGET_MS) {
+          resumeFrom = lineNumber;
+          break;
+        }
+      }
+      batches.flush();
+      batches.awaitPuts();
+    } finally {
+      if (batches.imported > 0) {
+        // The cache and search index on every instance need to see the imported comments.
+        CommentCache.getInstance().clear();
+        CommentIndex.getInstance().invalidate();
+      }
+    }
+
+    long elapsedMs = Math.max(1, System.currentTimeMillis() - start);
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("imported", batches.imported);
+    result.put("elapsedMs", elapsedMs);
+    result.put("commentsPerSecond", batches.imported * 1000 / elapsedMs);
+    result.put("skip", resumeFrom);
+    result.put("error", error);
+
+    if (error != null) {
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    }
+    response.setContentType("application/json");
+    response.getWriter().println(new Gson().toJson(result));
+  }
+
+  /** Comments waiting to be written, and the batch puts already under way. */
+  private static final class Batches {
+
+    private final AsyncDatastoreService datastore =
+        DatastoreServiceFactory.getAsyncDatastoreService();
+    private final Deque<Future<List<Key>>> pendingPuts = new ArrayDeque<>();
+    private List<Entity> batch = new ArrayList<>(BATCH_SIZE);
+    private long imported = 0;
+
+    /** Adds a comment to the current batch. Returns whether that started a put. */
+    boolean add(Entity comment) throws IOException {
+      batch.add(comment);
+      if (batch.size() < BATCH_SIZE) {
+        return false;
+      }
+      flush();
+      return true;
+    }
+
+    /** Starts writing the current batch, first waiting for the oldest put if too many are open. */
+    void flush() throws IOException {
+      if (batch.isEmpty()) {
+        return;
+      }
+      if (pendingPuts.size() >= MAX_BATCHES_IN_FLIGHT) {
+        await(pendingPuts.poll());
+      }
+      pendingPuts.add(datastore.put(batch));
+      batch = new ArrayList<>(BATCH_SIZE);
+    }
+
+    /** Waits for every batch put that was started to finish. */
+    void awaitPuts() throws IOException {
+      while (!pendingPuts.isEmpty()) {
+        await(pendingPuts.poll());
+      }
+    }
+
+    private void await(Future<List<Key>> put) throws IOException {
+      try {
+        imported += put.get().size();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while importing comments.", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Could not import comments.", e.getCause());
+      }
+    }
+  }
+}
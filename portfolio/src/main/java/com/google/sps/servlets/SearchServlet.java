@@ -0,0 +1,86 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.PageSize;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns the comments matching every word of a search query, best match first.
+ *
+ * <p>Results use the same format as /data. The cursor is the number of results already returned.
+ */
+@WebServlet(value = "/data/search", loadOnStartup = 1)
+public class SearchServlet extends HttpServlet {
+
+  /** Number of results returned when the client does not ask for a page size. */
+  private static final int DEFAULT_PAGE_SIZE = 10;
+
+  /** Largest page the client may ask for. */
+  private static final int MAX_PAGE_SIZE = CommentCache.CAPACITY;
+
+  @Override
+  public void init() {
+    // Load the index when the instance starts rather than on the first search. If that fails, the
+    // first search loads it instead.
+    try {
+      CommentIndex.getInstance().rebuild();
+    } catch (RuntimeException e) {
+      System.err.println("Could not load the comment index: " + e);
+    }
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String query = request.getParameter("q");
+    int pageSize = PageSize.fromRequest(request, "comments", DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE);
+
+    int offset = 0;
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null && !cursorString.isEmpty()) {
+      try {
+        offset = Integer.parseInt(cursorString);
+      } catch (NumberFormatException e) {
+        offset = -1;
+      }
+      if (offset < 0) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    long generation = CommentCache.getInstance().getGeneration();
+    CommentIndex.SearchResults results =
+        CommentIndex.getInstance().search(query, offset, pageSize, generation);
+    if (results == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Search for at least one word.");
+      return;
+    }
+
+    // Link to the next page only if there are results after this one.
+    int nextOffset = offset + results.getCommentJson().size();
+    String nextCursor = nextOffset < results.getTotal() ? String.valueOf(nextOffset) : null;
+
+    response.setContentType("application/json");
+    new CommentPage(results.getCommentJson(), nextCursor).writeJson(response.getWriter());
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.DeferredTask;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.analysis.CommentAnalysis;
+import com.google.sps.analysis.CommentAnalyzerFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Task that scores the sentiment, language and spam likelihood of newly posted comments.
+ *
+ * <p>DataServlet marks each new comment with analysisPending and schedules this task for the end of
+ * the current BATCH_WINDOW_MS. The task is named after the window, so however many comments are
+ * posted in it, they are all analyzed together by one run and one call to the analyzer.
+ */
+public final class CommentAnalysisTask implements DeferredTask {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Property set on comments that haven't been analyzed yet. */
+  public static final String PENDING_PROPERTY = "analysisPending";
+
+  /** How long comments are collected before they are analyzed together. */
+  private static final long BATCH_WINDOW_MS = 10 * 1000;
+
+  /** Extra wait after a window closes, so the query index has caught up with its last comments. */
+  private static final long INDEX_DELAY_MS = 5 * 1000;
+
+  /** Most comments analyzed in one run; if more are pending, another run follows at once. */
+  private static final int BATCH_SIZE = 100;
+
+  /** Most entity groups one cross-group transaction may write. */
+  private static final int MAX_GROUPS_PER_TRANSACTION = 25;
+
+  private CommentAnalysisTask() {}
+
+  /** Schedules analysis of the comments pending in the current window, if it isn't already. */
+  public static Future<TaskHandle> schedule() {
+    long now = System.currentTimeMillis();
+    long window = now / BATCH_WINDOW_MS;
+    TaskOptions options = TaskOptions.Builder
+        .withPayload(new CommentAnalysisTask())
+        .taskName("comment-analysis-" + window)
+        .countdownMillis((window + 1) * BATCH_WINDOW_MS - now + INDEX_DELAY_MS);
+    return QueueFactory.getDefaultQueue().addAsync(options);
+  }
+
+  /** Waits for schedule() to finish. The window's task having been scheduled already is fine. */
+  public static void awaitScheduled(Future<TaskHandle> scheduled) throws IOException {
+    try {
+      scheduled.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scheduling comment analysis.", e);
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof TaskAlreadyExistsException)) {
+        throw new IOException("Could not schedule comment analysis.", e.getCause());
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("Comment")
+        .setFilter(new FilterPredicate(PENDING_PROPERTY, FilterOperator.EQUAL, true));
+    List<Entity> pending =
+        datastore.prepare(query).asList(FetchOptions.Builder.withLimit(BATCH_SIZE));
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    List<String> texts = new ArrayList<>(pending.size());
+    for (Entity comment : pending) {
+      texts.add((String) comment.getProperty("text"));
+    }
+    List<CommentAnalysis> analyses = CommentAnalyzerFactory.getCommentAnalyzer().analyze(texts);
+
+    for (int start = 0; start < pending.size(); start += MAX_GROUPS_PER_TRANSACTION) {
+      int end = Math.min(start + MAX_GROUPS_PER_TRANSACTION, pending.size());
+      writeScores(datastore, pending.subList(start, end), analyses.subList(start, end));
+    }
+
+    if (pending.size() == BATCH_SIZE) {
+      // There may be more waiting, so analyze the next batch now instead of in the next window.
+      QueueFactory.getDefaultQueue()
+          .add(TaskOptions.Builder.withPayload(new CommentAnalysisTask()));
+    }
+  }
+
+  /**
+   * Writes the scores to the comments, re-reading them in a transaction so that changes made since
+   * the query, such as an image being attached, aren't overwritten.
+   */
+  private static void writeScores(
+      DatastoreService datastore, List<Entity> comments, List<CommentAnalysis> analyses) {
+    List<Key> keys = new ArrayList<>(comments.size());
+    for (Entity comment : comments) {
+      keys.add(comment.getKey());
+    }
+
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      // Comments deleted since the query are missing from the result and stay deleted.
+      Map<Key, Entity> current = datastore.get(transaction, keys);
+      List<Entity> updated = new ArrayList<>(current.size());
+      for (int i = 0; i < keys.size(); i++) {
+        Entity comment = current.get(keys.get(i));
+        if (comment == null) {
+          continue;
+        }
+        CommentAnalysis analysis = analyses.get(i);
+        comment.setUnindexedProperty("sentiment", analysis.getSentiment());
+        comment.setProperty("language", analysis.getLanguage());
+        comment.setProperty("spamScore", analysis.getSpamScore());
+        comment.removeProperty(PENDING_PROPERTY);
+        updated.add(comment);
+      }
+      datastore.put(transaction, updated);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+}
@@ -0,0 +1,248 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.DeferredTask;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.RetryOptions;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentIndex;
+import com.google.sps.data.ImagePreview;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task that attaches an uploaded image to a comment after the comment has been saved.
+ *
+ * <p>Looking up the blob and creating its resized variants are the slow parts of posting a comment,
+ * so DataServlet queues this task instead of doing them before it responds. An image that was
+ * uploaded before, found by the hash of its content, reuses the blob and variants kept for it and
+ * the new copy is deleted.
+ *
+ * <p>A new image is decoded once, here, to record its size, dominant color and a placeholder for
+ * the page to show while it loads. Decoding takes a lot of memory, so the tasks run on their own
+ * queue, which caps how many run at once, and each instance decodes only a few images at a time.
+ */
+public final class CommentImageTask implements DeferredTask {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Retries cover the task running before the comment it belongs to has been written. */
+  private static final int RETRY_LIMIT = 5;
+
+  /** Queue the tasks run on, set up in queue.xml. */
+  private static final String QUEUE_NAME = "comment-images";
+
+  /** Most images decoded at once on an instance. */
+  private static final int MAX_CONCURRENT_DECODES = 2;
+
+  /** How long a task waits to start decoding before giving up and letting the queue retry. */
+  private static final long DECODE_WAIT_SECONDS = 30;
+
+  private static final Semaphore decodePermits = new Semaphore(MAX_CONCURRENT_DECODES, true);
+
+  private final Key commentKey;
+  private final String blobKeyString;
+
+  private CommentImageTask(Key commentKey, BlobKey blobKey) {
+    this.commentKey = commentKey;
+    this.blobKeyString = blobKey.getKeyString();
+  }
+
+  /** Queues the task for a comment and its uploaded blob. */
+  public static Future<TaskHandle> enqueue(Key commentKey, BlobKey blobKey) {
+    TaskOptions options = TaskOptions.Builder
+        .withPayload(new CommentImageTask(commentKey, blobKey))
+        .retryOptions(RetryOptions.Builder.withTaskRetryLimit(RETRY_LIMIT));
+    return QueueFactory.getQueue(QUEUE_NAME).addAsync(options);
+  }
+
+  @Override
+  public void run() {
+    BlobKey blobKey = new BlobKey(blobKeyString);
+    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+    // User submitted form without selecting a file, so we can't get a URL. (live server)
+    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+    if (blobInfo == null || blobInfo.getSize() == 0) {
+      blobstoreService.delete(blobKey);
+      attach(datastore, null, null, null, null);
+      return;
+    }
+
+    String hash;
+    try {
+      hash = ImageBlobs.hash(blobKey);
+    } catch (IOException e) {
+      // Reading the blob failed, so let the queue retry.
+      throw new IllegalStateException("Could not read blob " + blobKeyString, e);
+    }
+
+    // If the same image was uploaded before, use the blob and variants kept for it.
+    BlobKey keptBlobKey = attach(datastore, hash, blobKey, null, null);
+    if (keptBlobKey == null) {
+      acquireDecodePermit();
+      ImageVariants variants;
+      ImagePreview preview = null;
+      try {
+        BufferedImage image = null;
+        try {
+          image = ImageVariants.decode(blobKey);
+        } catch (IOException e) {
+          System.err.println("Could not decode image: " + e);
+        }
+        if (image != null) {
+          preview = ImagePreviews.create(image);
+        }
+        variants = ImageVariants.create(blobKey, image);
+      } catch (IOException e) {
+        // Not an image we can resize, so leave the comment without one rather than retrying.
+        System.err.println("Could not create image variants: " + e);
+        blobstoreService.delete(blobKey);
+        attach(datastore, null, null, null, null);
+        return;
+      } finally {
+        decodePermits.release();
+      }
+
+      keptBlobKey = attach(datastore, hash, blobKey, variants, preview);
+      if (!keptBlobKey.equals(blobKey)) {
+        // The same image was attached to another comment while these variants were being made.
+        datastore.delete(ImageVariants.getLocalKeys(blobKey));
+      }
+    }
+    if (!keptBlobKey.equals(blobKey)) {
+      blobstoreService.delete(blobKey);
+    }
+  }
+
+  /** Waits for a turn to decode, or throws so that the queue retries the task later. */
+  private static void acquireDecodePermit() {
+    try {
+      if (!decodePermits.tryAcquire(DECODE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Too many images are being decoded on this instance.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting to decode an image.", e);
+    }
+  }
+
+  /**
+   * Points the comment at the blob kept for `hash`, counting the comment as one of its users. If
+   * there is no such blob yet, the uploaded one becomes it when `variants` are given, along with
+   * its `preview` if it has one, and otherwise nothing changes. A null hash removes the image from
+   * the comment.
+   *
+   * @return the key of the blob the comment now uses, or null if nothing changed
+   */
+  private BlobKey attach(DatastoreService datastore, String hash, BlobKey uploaded,
+      ImageVariants variants, ImagePreview preview) {
+    // Update the comment in a transaction so a comment deleted meanwhile isn't written back. It is
+    // cross-group because the image index entities are in their own groups.
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    BlobKey keptBlobKey;
+    Comment comment;
+    try {
+      Entity commentEntity;
+      try {
+        commentEntity = datastore.get(transaction, commentKey);
+      } catch (EntityNotFoundException e) {
+        // Either the comment hasn't been written yet, so let the queue retry, or it was deleted
+        // along with its blob and the retries will run out.
+        throw new IllegalStateException("Comment not found: " + commentKey, e);
+      }
+
+      String imageUrl = null;
+      String srcset = null;
+      if (hash == null) {
+        keptBlobKey = null;
+        commentEntity.removeProperty("blobKey");
+        commentEntity.removeProperty("imageHash");
+      } else if (hash.equals(commentEntity.getProperty("imageHash"))) {
+        // An earlier run of this task attached the image but failed before finishing.
+        return new BlobKey((String) commentEntity.getProperty("blobKey"));
+      } else {
+        Entity blobEntity = ImageBlobs.findByHash(datastore, transaction, hash);
+        if (blobEntity != null) {
+          ImageBlobs.addReference(datastore, transaction, blobEntity);
+          keptBlobKey = ImageBlobs.getBlobKey(blobEntity);
+          imageUrl = ImageBlobs.getImageUrl(blobEntity);
+          srcset = ImageBlobs.getSrcset(blobEntity);
+          preview = ImageBlobs.getPreview(blobEntity);
+        } else if (variants != null) {
+          ImageBlobs.add(datastore, transaction, hash, uploaded, variants, preview);
+          keptBlobKey = uploaded;
+          imageUrl = variants.getImageUrl();
+          srcset = variants.getSrcset();
+        } else {
+          return null;
+        }
+        commentEntity.setProperty("blobKey", keptBlobKey.getKeyString());
+        commentEntity.setUnindexedProperty("imageHash", hash);
+      }
+      commentEntity.setProperty("imageUrl", imageUrl);
+      commentEntity.setUnindexedProperty("srcset", srcset);
+      if (preview != null) {
+        preview.setProperties(commentEntity);
+      } else {
+        ImagePreview.removeProperties(commentEntity);
+      }
+
+      comment = Comment.render(
+          (String) commentEntity.getProperty("name"),
+          (String) commentEntity.getProperty("text"),
+          (String) commentEntity.getProperty("email"),
+          imageUrl,
+          srcset,
+          preview);
+      commentEntity.setUnindexedProperty("json", new Text(comment.toJson()));
+      // Lets the search index on other instances pick up the new JSON.
+      commentEntity.setProperty(CommentIndex.UPDATED_PROPERTY, System.currentTimeMillis());
+
+      datastore.put(transaction, commentEntity);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+
+    // Cached copies of the comment don't have the image yet.
+    long generation = CommentCache.getInstance().replace(commentKey, comment.toJson());
+    CommentIndex.getInstance().update(commentKey, comment.toJson(), generation);
+    return keptBlobKey;
+  }
+}
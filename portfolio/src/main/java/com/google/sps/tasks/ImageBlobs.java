@@ -0,0 +1,176 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.sps.data.ImagePreview;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Index of uploaded images by the SHA-256 of their content, so that an image attached to many
+ * comments is stored and resized once.
+ *
+ * <p>An ImageHash entity, named after the hash, points to the blob that was kept for that content.
+ * An ImageBlob entity, named after that blob's key, holds its image URLs, its preview and how many
+ * comments use it; the blob is only deleted once none do.
+ */
+public final class ImageBlobs {
+
+  private static final String HASH_KIND = "ImageHash";
+  private static final String BLOB_KIND = "ImageBlob";
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private ImageBlobs() {}
+
+  /** Returns the hex SHA-256 of a blob's content, read as a stream. */
+  public static String hash(BlobKey blobKey) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Every JVM supports SHA-256.", e);
+    }
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    try (InputStream in = new BlobstoreInputStream(blobKey)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Returns the ImageBlob entity of the blob already stored for this content, or null if there is
+   * none. `transaction` must be cross-group, since the hash and the blob are separate groups.
+   */
+  public static Entity findByHash(
+      DatastoreService datastore, Transaction transaction, String hash) {
+    Entity hashEntity;
+    try {
+      hashEntity = datastore.get(transaction, KeyFactory.createKey(HASH_KIND, hash));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+    String blobKeyString = (String) hashEntity.getProperty("blobKey");
+    try {
+      return datastore.get(transaction, KeyFactory.createKey(BLOB_KIND, blobKeyString));
+    } catch (EntityNotFoundException e) {
+      // The two are deleted together, but treat a missing blob as the content not being stored.
+      return null;
+    }
+  }
+
+  /** Records a new blob as the one kept for its content, used by one comment. */
+  public static void add(DatastoreService datastore, Transaction transaction, String hash,
+      BlobKey blobKey, ImageVariants variants, ImagePreview preview) {
+    Entity hashEntity = new Entity(HASH_KIND, hash);
+    hashEntity.setUnindexedProperty("blobKey", blobKey.getKeyString());
+
+    Entity blobEntity = new Entity(BLOB_KIND, blobKey.getKeyString());
+    blobEntity.setUnindexedProperty("hash", hash);
+    blobEntity.setUnindexedProperty("imageUrl", variants.getImageUrl());
+    blobEntity.setUnindexedProperty("srcset", variants.getSrcset());
+    blobEntity.setUnindexedProperty("references", 1L);
+    if (preview != null) {
+      preview.setProperties(blobEntity);
+    }
+    datastore.put(transaction, Arrays.asList(hashEntity, blobEntity));
+  }
+
+  /** Counts one more comment using a blob returned by findByHash(). */
+  public static void addReference(
+      DatastoreService datastore, Transaction transaction, Entity blobEntity) {
+    blobEntity.setUnindexedProperty("references", getReferences(blobEntity) + 1);
+    datastore.put(transaction, blobEntity);
+  }
+
+  /**
+   * Counts `count` fewer comments using a blob. Returns whether none are left, in which case the
+   * index no longer points to the blob and the caller should delete it and its variants.
+   */
+  public static boolean release(DatastoreService datastore, BlobKey blobKey, int count) {
+    Key blobEntityKey = KeyFactory.createKey(BLOB_KIND, blobKey.getKeyString());
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Entity blobEntity;
+      try {
+        blobEntity = datastore.get(transaction, blobEntityKey);
+      } catch (EntityNotFoundException e) {
+        // Uploaded before images were indexed, so no other comment can be using it.
+        return true;
+      }
+
+      long references = getReferences(blobEntity) - count;
+      if (references > 0) {
+        blobEntity.setUnindexedProperty("references", references);
+        datastore.put(transaction, blobEntity);
+        transaction.commit();
+        return false;
+      }
+
+      Key hashKey = KeyFactory.createKey(HASH_KIND, (String) blobEntity.getProperty("hash"));
+      datastore.delete(transaction, blobEntityKey, hashKey);
+      transaction.commit();
+      return true;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Returns the URL of the variant to use when the browser doesn't pick one. */
+  public static String getImageUrl(Entity blobEntity) {
+    return (String) blobEntity.getProperty("imageUrl");
+  }
+
+  /** Returns the variants as the value of an img srcset attribute. */
+  public static String getSrcset(Entity blobEntity) {
+    return (String) blobEntity.getProperty("srcset");
+  }
+
+  /** Returns the preview of the image, or null if it couldn't be decoded. */
+  public static ImagePreview getPreview(Entity blobEntity) {
+    return ImagePreview.fromProperties(blobEntity);
+  }
+
+  /** Returns the key of the blob an ImageBlob entity describes. */
+  public static BlobKey getBlobKey(Entity blobEntity) {
+    return new BlobKey(blobEntity.getKey().getName());
+  }
+
+  private static long getReferences(Entity blobEntity) {
+    return (Long) blobEntity.getProperty("references");
+  }
+}
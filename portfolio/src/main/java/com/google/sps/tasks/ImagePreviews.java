@@ -0,0 +1,87 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.sps.data.ImagePreview;
+import com.google.sps.images.ImageResizer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import javax.imageio.ImageIO;
+
+/** Computes the size, dominant color and placeholder of a decoded image. */
+final class ImagePreviews {
+
+  /** Longest side in pixels of the copy whose colors are counted. */
+  private static final int SAMPLE_SIZE = 64;
+
+  /** Longest side in pixels of the placeholder, which the page scales up and blurs. */
+  private static final int PLACEHOLDER_SIZE = 8;
+
+  /** Bits kept of each color channel when grouping similar colors. */
+  private static final int COLOR_BITS = 4;
+
+  private ImagePreviews() {}
+
+  /** Returns the preview of an image. */
+  static ImagePreview create(BufferedImage image) throws IOException {
+    BufferedImage sample = ImageResizer.resize(image, SAMPLE_SIZE, false);
+    BufferedImage placeholder = ImageResizer.resize(sample, PLACEHOLDER_SIZE, false);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(placeholder, "png", bytes);
+    String placeholderUrl =
+        "data:image/png;base64," + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    return new ImagePreview(
+        image.getWidth(), image.getHeight(), dominantColor(sample), placeholderUrl);
+  }
+
+  /**
+   * Returns the most common color of an image as a CSS hex color. Pixels are grouped by the top
+   * bits of each channel, and the color is the average of the largest group.
+   */
+  private static String dominantColor(BufferedImage image) {
+    int shift = 8 - COLOR_BITS;
+    int groups = 1 << (3 * COLOR_BITS);
+    int[] counts = new int[groups];
+    long[] reds = new long[groups];
+    long[] greens = new long[groups];
+    long[] blues = new long[groups];
+
+    int best = 0;
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int rgb = image.getRGB(x, y);
+        int red = (rgb >> 16) & 0xff;
+        int green = (rgb >> 8) & 0xff;
+        int blue = rgb & 0xff;
+        int group = ((red >> shift) << (2 * COLOR_BITS)) | ((green >> shift) << COLOR_BITS)
+            | (blue >> shift);
+        counts[group]++;
+        reds[group] += red;
+        greens[group] += green;
+        blues[group] += blue;
+        if (counts[group] > counts[best]) {
+          best = group;
+        }
+      }
+    }
+
+    int count = Math.max(1, counts[best]);
+    return String.format(
+        "#%02x%02x%02x", reds[best] / count, greens[best] / count, blues[best] / count);
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.tasks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ServingUrlOptions;
+import com.google.sps.images.ExifOrientation;
+import com.google.sps.images.ImageResizer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * The resized copies of an uploaded image that comments link to.
+ *
+ * <p>Variants normally come from the image serving URL, which resizes on the fly when given a size
+ * suffix. Where ImagesService is not available, the variants are resized here and stored in
+ * Datastore as CommentImage entities, which CommentImageServlet serves.
+ */
+public final class ImageVariants {
+
+  /** Kind of the entities that hold locally resized variants. */
+  public static final String KIND = "CommentImage";
+
+  /** Names of the variants, smallest first. */
+  private static final String[] NAMES = {"thumbnail", "medium", "full"};
+
+  /** Longest side in pixels of each variant in NAMES. */
+  private static final int[] SIZES = {160, 640, 1600};
+
+  /** Number of variants made of each image. */
+  public static final int VARIANT_COUNT = NAMES.length;
+
+  /** Index of the variant used as the plain src for browsers without srcset. */
+  private static final int DEFAULT_VARIANT = 1;
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final String[] urls;
+  private final int[] widths;
+
+  private ImageVariants(String[] urls, int[] widths) {
+    this.urls = urls;
+    this.widths = widths;
+  }
+
+  /**
+   * Creates the variants of an uploaded image. `image` is the blob already decoded, or null if it
+   * couldn't be, and is only resized here when ImagesService is not available.
+   */
+  public static ImageVariants create(BlobKey blobKey, BufferedImage image) throws IOException {
+    String servingUrl;
+    try {
+      servingUrl = getServingUrl(blobKey);
+    } catch (RuntimeException e) {
+      System.err.println("ImagesService is not available, resizing locally: " + e);
+      if (image == null) {
+        throw new IOException("Upload is not a readable image: " + blobKey.getKeyString());
+      }
+      return resizeLocally(blobKey, image);
+    }
+
+    String[] urls = new String[NAMES.length];
+    for (int i = 0; i < NAMES.length; i++) {
+      urls[i] = servingUrl + "=s" + SIZES[i];
+    }
+    return new ImageVariants(urls, SIZES.clone());
+  }
+
+  /** Returns the keys of the locally resized variants of a blob, whether or not they exist. */
+  public static List<Key> getLocalKeys(BlobKey blobKey) {
+    List<Key> keys = new ArrayList<>(NAMES.length);
+    for (String name : NAMES) {
+      keys.add(KeyFactory.createKey(KIND, getLocalName(blobKey, name)));
+    }
+    return keys;
+  }
+
+  /** Returns the URL of the variant to use when the browser doesn't pick one. */
+  public String getImageUrl() {
+    return urls[DEFAULT_VARIANT];
+  }
+
+  /** Returns the variants as the value of an img srcset attribute. */
+  public String getSrcset() {
+    StringBuilder srcset = new StringBuilder();
+    for (int i = 0; i < urls.length; i++) {
+      if (i > 0) {
+        srcset.append(", ");
+      }
+      srcset.append(urls[i]).append(' ').append(widths[i]).append('w');
+    }
+    return srcset.toString();
+  }
+
+  /** Returns a URL that points to the uploaded file. */
+  private static String getServingUrl(BlobKey blobKey) {
+    // Use ImagesService to get a URL that points to the uploaded file.
+    ImagesService imagesService = ImagesServiceFactory.getImagesService();
+    ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
+
+    // To support running in Google Cloud Shell with AppEngine's devserver, we must use the relative
+    // path to the image, rather than the path returned by imagesService which contains a host.
+    String servingUrl = imagesService.getServingUrl(options);
+    try {
+      return new URL(servingUrl).getPath();
+    } catch (MalformedURLException e) {
+      return servingUrl;
+    }
+  }
+
+  /**
+   * Decodes an uploaded image, upright as browsers show it, returning null if it isn't in a format
+   * ImageIO can read.
+   */
+  static BufferedImage decode(BlobKey blobKey) throws IOException {
+    // The whole file is read first, since its EXIF orientation is needed besides the pixels.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = new BlobstoreInputStream(blobKey)) {
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, count);
+      }
+    }
+    byte[] file = bytes.toByteArray();
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(file));
+    if (image == null) {
+      return null;
+    }
+    return ExifOrientation.apply(image, ExifOrientation.read(file));
+  }
+
+  /** Resizes the image to every variant size and stores the results in Datastore. */
+  private static ImageVariants resizeLocally(BlobKey blobKey, BufferedImage original)
+      throws IOException {
+    String[] urls = new String[NAMES.length];
+    int[] widths = new int[NAMES.length];
+    List<Entity> entities = new ArrayList<>(NAMES.length);
+    for (int i = 0; i < NAMES.length; i++) {
+      // JPEG has no alpha channel, so the variants are RGB.
+      BufferedImage resized = ImageResizer.resize(original, SIZES[i], false);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ImageIO.write(resized, "jpg", bytes);
+
+      String name = getLocalName(blobKey, NAMES[i]);
+      Entity entity = new Entity(KIND, name);
+      entity.setUnindexedProperty("data", new Blob(bytes.toByteArray()));
+      entity.setUnindexedProperty("contentType", "image/jpeg");
+      entities.add(entity);
+
+      urls[i] = "/comment-image?name=" + URLEncoder.encode(name, "UTF-8");
+      widths[i] = resized.getWidth();
+    }
+    DatastoreServiceFactory.getDatastoreService().put(entities);
+    return new ImageVariants(urls, widths);
+  }
+
+  private static String getLocalName(BlobKey blobKey, String variantName) {
+    return blobKey.getKeyString() + "-" + variantName;
+  }
+}
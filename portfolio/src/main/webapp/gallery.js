@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/** Number of photos fetched from GalleryServlet at a time. */
+const GALLERY_PAGE_SIZE = 6;
+
+/** How far outside the window a photo starts downloading, so it is ready when scrolled to. */
+const GALLERY_PRELOAD_MARGIN = '300px';
+
+/** Name of the gallery on this page. */
+let galleryName = null;
+
+/** Cursor for the next page of photos, or null if every photo has been added. */
+let nextGalleryCursor = null;
+
+/** Whether a page of photos is being fetched. */
+let galleryLoading = false;
+
+/** Starts downloading each photo once it is close to the window. */
+let photoObserver = null;
+
+/** Fetches the next page when the end of the gallery comes close to the window. */
+let galleryEndObserver = null;
+
+/** Loads the first page of a gallery, and the next page whenever the end of the list shows. */
+function loadGallery(name) {
+  galleryName = name;
+  if('IntersectionObserver' in window) {
+    photoObserver = new IntersectionObserver(showVisiblePhotos, {rootMargin: GALLERY_PRELOAD_MARGIN});
+    galleryEndObserver = new IntersectionObserver((entries) => {
+      if(entries.some(entry => entry.isIntersecting) && nextGalleryCursor != null) {
+        fetchGalleryPage();
+      }
+    }, {rootMargin: GALLERY_PRELOAD_MARGIN});
+    galleryEndObserver.observe(document.getElementById('gallery-end'));
+  }
+  fetchGalleryPage();
+}
+
+/** Fetches the page of photos after the ones already added and appends it to the gallery. */
+function fetchGalleryPage() {
+  if(galleryLoading) {
+    return;
+  }
+  galleryLoading = true;
+
+  let url = '/gallery?name=' + encodeURIComponent(galleryName) + '&photos=' + GALLERY_PAGE_SIZE;
+  if(nextGalleryCursor != null) {
+    url += '&cursor=' + encodeURIComponent(nextGalleryCursor);
+  }
+  fetch(url).then(response => response.json()).then((page) => {
+    const galleryEl = document.getElementById('gallery');
+    page.photos.forEach(photo => galleryEl.appendChild(createPhotoElement(photo)));
+    nextGalleryCursor = page.cursor != null ? page.cursor : null;
+    galleryLoading = false;
+
+    if(nextGalleryCursor == null) {
+      return;
+    }
+    if(galleryEndObserver != null) {
+      // The observer only reports changes, so if the new photos didn't push the end of the gallery
+      // out of view it would never fire again. Observing afresh reports where the end is now.
+      const galleryEnd = document.getElementById('gallery-end');
+      galleryEndObserver.unobserve(galleryEnd);
+      galleryEndObserver.observe(galleryEnd);
+    }
+    else {
+      // Without IntersectionObserver nothing else would ask for the rest of the gallery.
+      fetchGalleryPage();
+    }
+  }).catch(() => {
+    galleryLoading = false;
+  });
+}
+
+/**
+ * Creates the <img> for a photo with its size reserved, inside a <picture> if there is a WebP copy.
+ * Its URLs are only set once it is close to the window, so photos far down the page are not
+ * downloaded.
+ */
+function createPhotoElement(photo) {
+  const image = document.createElement('IMG');
+  image.className = 'gallery-image';
+  image.width = photo.width;
+  image.height = photo.height;
+  image.dataset.src = photo.src;
+  if(photo.srcset != null) {
+    image.dataset.srcset = photo.srcset;
+  }
+
+  let element = image;
+  if(photo.webpSrcset != null) {
+    element = document.createElement('PICTURE');
+    const source = document.createElement('SOURCE');
+    source.type = 'image/webp';
+    source.dataset.srcset = photo.webpSrcset;
+    element.appendChild(source);
+    element.appendChild(image);
+  }
+
+  if(photoObserver != null) {
+    photoObserver.observe(image);
+  }
+  else {
+    loadPhoto(image);
+  }
+  return element;
+}
+
+/** Starts downloading the photos that came close to the window. */
+function showVisiblePhotos(entries, observer) {
+  entries.filter(entry => entry.isIntersecting).forEach((entry) => {
+    observer.unobserve(entry.target);
+    loadPhoto(entry.target);
+  });
+}
+
+/** Points an <img> made by createPhotoElement, and its WebP source if it has one, at its photo. */
+function loadPhoto(image) {
+  const source = image.previousElementSibling;
+  if(source != null && source.dataset.srcset != null) {
+    source.srcset = source.dataset.srcset;
+  }
+  if(image.dataset.srcset != null) {
+    image.srcset = image.dataset.srcset;
+  }
+  image.src = image.dataset.src;
+}
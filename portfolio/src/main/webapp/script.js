@@ -12,34 +12,105 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
+/** Width that comment images are displayed at, used to pick a variant from the srcset. */
+const COMMENT_IMAGE_SIZES = '(max-width: 650px) 100vw, 320px';
+
+/** Cursor for the next page of comments, or null if every comment has been shown. */
+let nextCommentCursor = null;
+
 /**
- * Fetches JSON message from DataServlet.
+ * Fetches the first page of comments from DataServlet, or of search results if there is a search.
  */
 function getComments() {
+  document.getElementById('comment-section').innerHTML = '';
+  nextCommentCursor = null;
+  fetchCommentPage();
+}
+
+/** Fetches the page of comments after the ones already displayed. */
+function getMoreComments() {
+  if(nextCommentCursor != null) {
+    fetchCommentPage();
+  }
+}
+
+/** Fetches one page of comments starting at nextCommentCursor and appends it to the list. */
+function fetchCommentPage() {
   // Get the max amount of comments allowed.
   const maxComments = document.getElementById('comment-quantity').value;
+  const search = document.getElementById('comment-search').value.trim();
+  let url = '/data?comments=' + maxComments;
+  if(search != '') {
+    url = '/data/search?comments=' + maxComments + '&q=' + encodeURIComponent(search);
+  }
+  if(nextCommentCursor != null) {
+    url += '&cursor=' + encodeURIComponent(nextCommentCursor);
+  }
+
+  fetch(url).then(response => response.json()).then(showCommentPage);
+}
 
-  fetch('/data?comments=' + maxComments).then(response => response.json()).then((comments) => {
-      // Build the list of comment entries.
-      const commentEl = document.getElementById('comment-section');
-      commentEl.innerHTML = '';
-      comments.forEach((comment) => {
-        // Add the comment entry's text.
-        commentEl.appendChild(createListElement(comment.entry));
-        // If there is an image attached to the comment, display it.
-        if(comment.imageUrl != null) {
-          var image = document.createElement('IMG');
-          image.src = comment.imageUrl;
-          commentEl.appendChild(image);
-        }
-      });
+/** Appends a page of comments to the list and offers the next page if there is one. */
+function showCommentPage(page) {
+  // Build the list of comment entries.
+  const commentEl = document.getElementById('comment-section');
+  page.comments.forEach((comment) => {
+    // Add the comment entry's text.
+    commentEl.appendChild(createListElement(comment.entry));
+    // If there is an image attached to the comment, display it.
+    if(comment.imageUrl != null) {
+      var image = document.createElement('IMG');
+      image.src = comment.imageUrl;
+      // Let the browser download the smallest variant that fills the slot.
+      if(comment.srcset != null) {
+        image.srcset = comment.srcset;
+        image.sizes = COMMENT_IMAGE_SIZES;
+      }
+      image.className = 'comment-image';
+      if(comment.preview != null) {
+        showImagePreview(image, comment.preview);
+      }
+      commentEl.appendChild(image);
+    }
   });
+
+  // Only offer more comments if the server says there is another page.
+  nextCommentCursor = page.cursor != null ? page.cursor : null;
+  document.getElementById('more-comments').classList.toggle('hidden', nextCommentCursor == null);
 }
 
-/** Deletes all comments. */
-function deleteComments() {
-  const request = new Request('/delete-data', {method: 'POST'});
-  fetch(request).then(getComments());
+/**
+ * Reserves the image's space on the page from its known size, and shows its dominant color and a
+ * blurred placeholder until it loads.
+ */
+function showImagePreview(image, preview) {
+  image.width = preview.width;
+  image.height = preview.height;
+  image.style.backgroundColor = preview.color;
+  if(preview.placeholder != null) {
+    image.style.backgroundImage = 'url(' + preview.placeholder + ')';
+  }
+  image.addEventListener('load', () => {
+    image.style.backgroundColor = '';
+    image.style.backgroundImage = '';
+  });
+}
+
+/** Deletes all comments, continuing from the returned cursor until the purge finishes. */
+function deleteComments(cursor) {
+  const params = new URLSearchParams();
+  if(cursor != null) {
+    params.append('cursor', cursor);
+  }
+
+  fetch('/delete-data', {method: 'POST', body: params}).then(response => response.json()).then((result) => {
+    if(result.cursor != null) {
+      deleteComments(result.cursor);
+    }
+    else {
+      getComments();
+    }
+  });
 }
 
 /** Creates an <li> element containing text. */
@@ -49,27 +120,34 @@ function createListElement(text) {
   return liElement;
 }
 
-/** Chooses what to display upon loading based on login status. */
-function determineVisibleItems() {
-  fetch('/login').then(response => response.json()).then(loginInfo => {
-    const linkEl = document.getElementById('login-link');
-
-    // If the user is logged in, unhide comment form.
-    if(loginInfo.status) {
-      document.getElementById('comment-form').classList.remove('hidden');
-      linkEl.innerHTML = 'You are currently logged in with your Google account. Log out <a href=\"' + loginInfo.url + '\">here</a>.';
-    }
-    // If the user is not logged in, comment form remains hidden.
-    else {
-      linkEl.innerHTML = 'Login <a href=\"' + loginInfo.url + '\">here</a> to post a comment.';
+/**
+ * Loads the login status, the first page of comments and the image upload url in one request, and
+ * builds the page from them.
+ */
+function bootstrap() {
+  const maxComments = document.getElementById('comment-quantity').value;
+  fetch('/bootstrap?comments=' + maxComments).then(response => response.json()).then((info) => {
+    showLoginStatus(info);
+    if(info.uploadUrl != null) {
+      document.getElementById('comment-form').action = info.uploadUrl;
     }
+
+    document.getElementById('comment-section').innerHTML = '';
+    showCommentPage(info.page);
   });
 }
 
-/** Fetches and sets the upload url for images in the comment form. */
-function fetchBlobstoreUrl() {
-  fetch('/image-upload-url').then(response => response.text()).then(imageUploadUrl => {
-    const commentForm = document.getElementById('comment-form');
-    commentForm.action = imageUploadUrl;
-  });
+/** Chooses what to display based on login status. */
+function showLoginStatus(loginInfo) {
+  const linkEl = document.getElementById('login-link');
+
+  // If the user is logged in, unhide comment form.
+  if(loginInfo.status) {
+    document.getElementById('comment-form').classList.remove('hidden');
+    linkEl.innerHTML = 'You are currently logged in with your Google account. Log out <a href=\"' + loginInfo.url + '\">here</a>.';
+  }
+  // If the user is not logged in, comment form remains hidden.
+  else {
+    linkEl.innerHTML = 'Login <a href=\"' + loginInfo.url + '\">here</a> to post a comment.';
+  }
 }
@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.analysis;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks RuleBasedAnalyzer's sentiment, language and spam scores on typical comments. */
+@RunWith(JUnit4.class)
+public final class RuleBasedAnalyzerTest {
+
+  private static final double DELTA = 1e-9;
+
+  private final RuleBasedAnalyzer analyzer = new RuleBasedAnalyzer();
+
+  @Test
+  public void sentimentIsTheShareOfPositiveWordsLessNegativeOnes() {
+    Assert.assertEquals(1, analyze("I love this, it's great!").getSentiment(), DELTA);
+    Assert.assertEquals(-1, analyze("Terrible and boring.").getSentiment(), DELTA);
+    Assert.assertEquals(0, analyze("Good photos, bad music.").getSentiment(), DELTA);
+    Assert.assertEquals(1.0 / 3, analyze("Nice, cool, but ugly font").getSentiment(), DELTA);
+    Assert.assertEquals(0, analyze("Posted on Tuesday").getSentiment(), DELTA);
+  }
+
+  @Test
+  public void negationFlipsTheNextWord() {
+    Assert.assertEquals(-1, analyze("This is not good").getSentiment(), DELTA);
+    Assert.assertEquals(1, analyze("I don't hate it").getSentiment(), DELTA);
+    // Only the word right after the negation is flipped.
+    Assert.assertEquals(0, analyze("Not bad, just sad").getSentiment(), DELTA);
+  }
+
+  @Test
+  public void languageIsTheOneWithTheMostCommonWords() {
+    Assert.assertEquals("en", analyze("The site is nice and it was fun to read").getLanguage());
+    Assert.assertEquals("es", analyze("El sitio es muy bonito y me gusta").getLanguage());
+    Assert.assertEquals("fr", analyze("Je pense que le site est pour tout").getLanguage());
+    Assert.assertEquals("de", analyze("Ich finde die Seite sehr gut").getLanguage());
+    Assert.assertEquals("it", analyze("Il sito non è molto bello").getLanguage());
+  }
+
+  @Test
+  public void languageTiesGoToTheFirstListed() {
+    // "la" is common in Spanish, French and Italian.
+    Assert.assertEquals("es", analyze("la").getLanguage());
+    Assert.assertEquals("und", analyze("Lorem ipsum").getLanguage());
+    Assert.assertEquals("und", analyze("").getLanguage());
+  }
+
+  @Test
+  public void ordinaryCommentsAreNotSpam() {
+    Assert.assertEquals(0, analyze("Thanks for sharing your photos!").getSpamScore(), DELTA);
+    Assert.assertEquals(0, analyze("OK").getSpamScore(), DELTA);
+  }
+
+  @Test
+  public void spamScoreAddsUpSigns() {
+    Assert.assertEquals(0.3, analyze("See https://example.com").getSpamScore(), DELTA);
+    Assert.assertEquals(0.6, analyze("www.a.com www.b.com www.c.com").getSpamScore(), DELTA);
+    Assert.assertEquals(0.4, analyze("free crypto offer, click").getSpamScore(), DELTA);
+    Assert.assertEquals(0.2, analyze("WHO WROTE THIS PAGE").getSpamScore(), DELTA);
+    Assert.assertEquals(0.1, analyze("Sooooo far away").getSpamScore(), DELTA);
+    Assert.assertEquals(
+        1, analyze("FREE BITCOIN!!!!! http://a.io http://b.io http://c.io").getSpamScore(), DELTA);
+  }
+
+  @Test
+  public void analyzesEveryTextInOrder() {
+    List<CommentAnalysis> results =
+        analyzer.analyze(Arrays.asList("I love it", null, "Win a free prize at www.example.com"));
+
+    Assert.assertEquals(3, results.size());
+    Assert.assertEquals(1, results.get(0).getSentiment(), DELTA);
+    Assert.assertEquals(0, results.get(1).getSentiment(), DELTA);
+    Assert.assertEquals("und", results.get(1).getLanguage());
+    Assert.assertEquals(0, results.get(1).getSpamScore(), DELTA);
+    Assert.assertEquals(0.7, results.get(2).getSpamScore(), DELTA);
+  }
+
+  private CommentAnalysis analyze(String text) {
+    return analyzer.analyze(Arrays.asList(text)).get(0);
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks CommentIndex's tokenizing, intersection, ranking and paging, and how it catches up with
+ * comments written by other instances.
+ */
+@RunWith(JUnit4.class)
+public final class CommentIndexTest {
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void tokenizeSplitsOnAnythingButLettersAndDigits() {
+    Assert.assertEquals(Arrays.asList("hello", "world", "it", "s", "2019"),
+        CommentIndex.tokenize("Hello, WORLD! It's 2019..."));
+    Assert.assertEquals(Arrays.asList("café", "über"), CommentIndex.tokenize("  Café/Über "));
+    Assert.assertEquals(Collections.emptyList(), CommentIndex.tokenize(" -- ?! "));
+    Assert.assertEquals(Collections.emptyList(), CommentIndex.tokenize(null));
+  }
+
+  @Test
+  public void seekGallopsToTheFirstDocumentNotBefore() {
+    CommentIndex.Postings postings = new CommentIndex.Postings();
+    for (int doc = 0; doc <= 3000; doc += 3) {
+      postings.append(doc, 1);
+    }
+
+    Assert.assertEquals(0, postings.seek(0, 0));
+    Assert.assertEquals(2, postings.seek(6, 0));
+    Assert.assertEquals(3, postings.seek(7, 0));
+    Assert.assertEquals(1000, postings.seek(3000, 0));
+    Assert.assertEquals(postings.size, postings.seek(3001, 0));
+    // Seeking from a later position never goes back.
+    Assert.assertEquals(500, postings.seek(3, 500));
+    Assert.assertEquals(700, postings.seek(2100, 400));
+  }
+
+  @Test
+  public void searchReturnsOnlyCommentsWithEveryWord() {
+    CommentIndex.Documents documents = new CommentIndex.Documents();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      String text = "common";
+      if (i % 7 == 0) {
+        text += " seven";
+      }
+      if (i % 11 == 0) {
+        text += " eleven";
+      }
+      documents.add(key(i), "author", text, "c" + i);
+      if (i % 77 == 0) {
+        expected.add("c" + i);
+      }
+    }
+
+    CommentIndex.SearchResults results =
+        documents.search(Arrays.asList("eleven", "common", "seven"), 0, 1000);
+    Assert.assertEquals(expected.size(), results.getTotal());
+    // Every match scores the same, so they come newest first.
+    Collections.reverse(expected);
+    Assert.assertEquals(expected, results.getCommentJson());
+
+    Assert.assertEquals(0, documents.search(Arrays.asList("common", "missing"), 0, 10).getTotal());
+  }
+
+  @Test
+  public void searchMatchesAuthors() {
+    CommentIndex.Documents documents = new CommentIndex.Documents();
+    documents.add(key(1), "Ada Lovelace", "first program", "ada");
+    documents.add(key(2), "Alan", "program", "alan");
+
+    Assert.assertEquals(Arrays.asList("ada"),
+        documents.search(Arrays.asList("lovelace", "program"), 0, 10).getCommentJson());
+  }
+
+  @Test
+  public void searchRanksByTfIdf() {
+    CommentIndex.Documents documents = new CommentIndex.Documents();
+    documents.add(key(1), "a", "apple apple apple", "three apples");
+    documents.add(key(2), "a", "apple banana", "apple and banana");
+    documents.add(key(3), "a", "apple", "one apple");
+    documents.add(key(4), "a", "banana cherry", "banana and cherry");
+
+    // More occurrences rank higher; equal scores put the newer comment first.
+    Assert.assertEquals(Arrays.asList("three apples", "one apple", "apple and banana"),
+        documents.search(Arrays.asList("apple"), 0, 10).getCommentJson());
+
+    // "cherry" is in fewer comments than "apple", so repeating it counts for more, even over a
+    // newer comment.
+    documents.add(key(5), "a", "apple cherry cherry", "more cherry");
+    documents.add(key(6), "a", "apple apple cherry", "more apple");
+    Assert.assertEquals(Arrays.asList("more cherry", "more apple"),
+        documents.search(Arrays.asList("apple", "cherry"), 0, 10).getCommentJson());
+  }
+
+  @Test
+  public void searchPagesByOffset() {
+    CommentIndex.Documents documents = new CommentIndex.Documents();
+    for (int i = 0; i < 25; i++) {
+      documents.add(key(i), "author", "word", "c" + i);
+    }
+
+    CommentIndex.SearchResults second = documents.search(Arrays.asList("word"), 10, 10);
+    Assert.assertEquals(25, second.getTotal());
+    Assert.assertEquals(Arrays.asList("c14", "c13", "c12", "c11", "c10", "c9", "c8", "c7", "c6",
+        "c5"), second.getCommentJson());
+
+    CommentIndex.SearchResults last = documents.search(Arrays.asList("word"), 20, 10);
+    Assert.assertEquals(Arrays.asList("c4", "c3", "c2", "c1", "c0"), last.getCommentJson());
+    Assert.assertTrue(documents.search(Arrays.asList("word"), 25, 10).getCommentJson().isEmpty());
+  }
+
+  @Test
+  public void removedAndReplacedCommentsAreNotFoundTwice() {
+    CommentIndex.Documents documents = new CommentIndex.Documents();
+    documents.add(key(1), "a", "word one", "c1");
+    documents.add(key(2), "a", "word two", "c2");
+    documents.add(key(1), "a", "word again", "c1 again");
+    documents.remove(key(2));
+
+    CommentIndex.SearchResults results = documents.search(Arrays.asList("word"), 0, 10);
+    Assert.assertEquals(1, results.getTotal());
+    Assert.assertEquals(Arrays.asList("c1 again"), results.getCommentJson());
+  }
+
+  @Test
+  public void catchesUpWithCommentsFromOtherInstances() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(comment(1, "hello there", "c1", true));
+    CommentIndex index = new CommentIndex();
+    Assert.assertEquals(Arrays.asList("c1"), search(index, "hello", 1));
+
+    // Written by other instances after the index loaded. The comment without an updated time is
+    // only found by loading every comment, which catching up must not do.
+    datastore.put(comment(2, "hello again", "c2", true));
+    datastore.put(comment(3, "hello unmarked", "c3", false));
+    Assert.assertEquals(Arrays.asList("c1"), search(index, "hello", 1));
+    Assert.assertEquals(Arrays.asList("c2", "c1"), search(index, "hello", 2));
+
+    // An image attached on another instance changes the comment's JSON.
+    datastore.put(comment(1, "hello there", "c1 with image", true));
+    Assert.assertEquals(Arrays.asList("c2", "c1 with image"), search(index, "hello", 3));
+  }
+
+  @Test
+  public void reloadsAfterAPurge() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(comment(1, "hello", "c1", true));
+    datastore.put(comment(2, "hello", "c2", true));
+    CommentIndex index = new CommentIndex();
+    Assert.assertEquals(2, index.search("hello", 0, 10, 1).getTotal());
+
+    datastore.delete(key(1), key(2));
+    datastore.put(comment(3, "hello", "c3", false));
+    CommentIndex.recordPurge();
+    Assert.assertEquals(Arrays.asList("c3"), search(index, "hello", 2));
+  }
+
+  private static List<String> search(CommentIndex index, String query, long generation) {
+    return index.search(query, 0, 10, generation).getCommentJson();
+  }
+
+  /** Returns a Comment entity as DataServlet writes it, optionally without an updated time. */
+  private static Entity comment(int id, String text, String json, boolean updated) {
+    Entity entity = new Entity(key(id));
+    entity.setProperty("text", text);
+    entity.setProperty("name", "author");
+    entity.setProperty("email", "author@example.com");
+    entity.setProperty("timestamp", (long) id);
+    entity.setUnindexedProperty("json", new Text(json));
+    if (updated) {
+      entity.setProperty(CommentIndex.UPDATED_PROPERTY, System.currentTimeMillis());
+    }
+    return entity;
+  }
+
+  private static Key key(int id) {
+    return KeyFactory.createKey("Comment", "comment-" + id);
+  }
+}
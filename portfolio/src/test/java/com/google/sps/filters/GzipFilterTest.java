@@ -0,0 +1,304 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that GzipFilter's responses read back the same through GZIPInputStream. */
+@RunWith(JUnit4.class)
+public final class GzipFilterTest {
+
+  /** Shorter than GzipFilter.MIN_COMPRESS_SIZE. */
+  private static final String SMALL_JSON = json(10);
+
+  /** Longer than GzipFilter.MIN_COMPRESS_SIZE. */
+  private static final String LARGE_JSON = json(2000);
+
+  @Test
+  public void smallBodiesAreSentAsIs() throws Exception {
+    FakeResponse response = filter("gzip", (request, servletResponse) -> {
+      servletResponse.setContentType("application/json");
+      servletResponse.getWriter().write(SMALL_JSON);
+    });
+
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertEquals("Accept-Encoding", response.headers.get("Vary"));
+    Assert.assertEquals(
+        String.valueOf(SMALL_JSON.length()), response.headers.get("Content-Length"));
+    Assert.assertEquals(SMALL_JSON, response.body());
+  }
+
+  @Test
+  public void largeBodiesAreGzipped() throws Exception {
+    FakeResponse response = filter("gzip, deflate", (request, servletResponse) -> {
+      servletResponse.setContentType("application/json");
+      servletResponse.getWriter().write(LARGE_JSON);
+    });
+
+    Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+    Assert.assertNull(response.headers.get("Content-Length"));
+    Assert.assertTrue(response.out.size() < LARGE_JSON.length() / 2);
+    Assert.assertEquals(LARGE_JSON, response.gunzip());
+  }
+
+  @Test
+  public void pooledCompressorsStartAfresh() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      String body = json(1000 + i * 500);
+      FakeResponse response = filter("gzip", (request, servletResponse) -> {
+        servletResponse.setContentType("text/plain");
+        servletResponse.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+      });
+      Assert.assertEquals(body, response.gunzip());
+    }
+  }
+
+  @Test
+  public void flushBufferSendsWhatWasWrittenSoFar() throws Exception {
+    String first = "{\"first\":true,";
+    FakeResponse response = new FakeResponse();
+    filter("gzip", response, (request, servletResponse) -> {
+      servletResponse.setContentType("application/json");
+      servletResponse.getWriter().write(first);
+      servletResponse.flushBuffer();
+
+      // The flushed start of the body can already be read, even though it is short.
+      Assert.assertTrue(response.committed);
+      Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+      byte[] flushed = new byte[first.length()];
+      new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(response.out.toByteArray())))
+          .readFully(flushed);
+      Assert.assertEquals(first, new String(flushed, StandardCharsets.UTF_8));
+
+      servletResponse.getWriter().write(LARGE_JSON);
+    });
+
+    Assert.assertEquals(first + LARGE_JSON, response.gunzip());
+  }
+
+  @Test
+  public void contentLengthIsOnlyKeptForUncompressedBodies() throws Exception {
+    byte[] large = LARGE_JSON.getBytes(StandardCharsets.UTF_8);
+    FakeResponse gzipped = filter("gzip", (request, servletResponse) -> {
+      servletResponse.setContentType("application/json");
+      servletResponse.setContentLength(large.length);
+      servletResponse.getOutputStream().write(large);
+    });
+    Assert.assertEquals("gzip", gzipped.headers.get("Content-Encoding"));
+    Assert.assertNull(gzipped.headers.get("Content-Length"));
+    Assert.assertEquals(LARGE_JSON, gzipped.gunzip());
+
+    byte[] small = SMALL_JSON.getBytes(StandardCharsets.UTF_8);
+    FakeResponse plain = filter("gzip", (request, servletResponse) -> {
+      servletResponse.setContentType("application/json");
+      ((HttpServletResponse) servletResponse)
+          .setHeader("Content-Length", String.valueOf(small.length));
+      servletResponse.getOutputStream().write(small);
+    });
+    Assert.assertEquals(String.valueOf(small.length), plain.headers.get("Content-Length"));
+    Assert.assertEquals(SMALL_JSON, plain.body());
+  }
+
+  @Test
+  public void alreadyEncodedBodiesAreSentAsIs() throws Exception {
+    byte[] encoded = randomBytes(5000);
+    FakeResponse response = filter("gzip", (request, servletResponse) -> {
+      servletResponse.setContentType("application/json");
+      ((HttpServletResponse) servletResponse).setHeader("Content-Encoding", "br");
+      servletResponse.getOutputStream().write(encoded);
+    });
+
+    Assert.assertEquals("br", response.headers.get("Content-Encoding"));
+    Assert.assertArrayEquals(encoded, response.out.toByteArray());
+  }
+
+  @Test
+  public void imagesAreSentAsIs() throws Exception {
+    byte[] image = randomBytes(5000);
+    FakeResponse response = filter("gzip", (request, servletResponse) -> {
+      servletResponse.setContentType("image/png");
+      servletResponse.getOutputStream().write(image);
+    });
+
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertArrayEquals(image, response.out.toByteArray());
+  }
+
+  @Test
+  public void clientsThatRefuseGzipGetTheBodyAsIs() throws Exception {
+    for (String acceptEncoding : new String[] {null, "identity", "gzip;q=0", "br, gzip; q=0.0"}) {
+      FakeResponse response = filter(acceptEncoding, (request, servletResponse) -> {
+        servletResponse.setContentType("application/json");
+        servletResponse.getWriter().write(LARGE_JSON);
+      });
+      Assert.assertNull(acceptEncoding, response.headers.get("Content-Encoding"));
+      Assert.assertEquals(acceptEncoding, LARGE_JSON, response.body());
+    }
+  }
+
+  private static FakeResponse filter(String acceptEncoding, FilterChain servlet)
+      throws IOException, ServletException {
+    FakeResponse response = new FakeResponse();
+    filter(acceptEncoding, response, servlet);
+    return response;
+  }
+
+  private static void filter(String acceptEncoding, FakeResponse response, FilterChain servlet)
+      throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+        GzipFilterTest.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getMethod":
+              return "GET";
+            case "getHeader":
+              return "Accept-Encoding".equalsIgnoreCase((String) args[0]) ? acceptEncoding : null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    new GzipFilter().doFilter(request, response.proxy(), servlet);
+  }
+
+  /** Returns a JSON array of about 40 bytes per entry, which compresses well. */
+  private static String json(int entries) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < entries; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"text\":\"hi\"}");
+    }
+    return json.append("]").toString();
+  }
+
+  private static byte[] randomBytes(int count) {
+    byte[] bytes = new byte[count];
+    new Random(count).nextBytes(bytes);
+    return bytes;
+  }
+
+  /** The parts of a servlet container's response that GzipFilter uses. */
+  private static final class FakeResponse {
+
+    final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    String contentType;
+    boolean committed;
+    private PrintWriter writer;
+
+    private final ServletOutputStream stream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        out.write(b);
+      }
+
+      @Override
+      public void flush() {
+        committed = true;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {}
+    };
+
+    HttpServletResponse proxy() {
+      return (HttpServletResponse) Proxy.newProxyInstance(
+          GzipFilterTest.class.getClassLoader(),
+          new Class<?>[] {HttpServletResponse.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getOutputStream":
+                return stream;
+              case "getWriter":
+                if (writer == null) {
+                  writer = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+                }
+                return writer;
+              case "getCharacterEncoding":
+                return "UTF-8";
+              case "setContentType":
+                contentType = (String) args[0];
+                return null;
+              case "getContentType":
+                return contentType;
+              case "getStatus":
+                return HttpServletResponse.SC_OK;
+              case "setHeader":
+              case "addHeader":
+                headers.put((String) args[0], (String) args[1]);
+                return null;
+              case "containsHeader":
+                return headers.containsKey(args[0]);
+              case "setContentLength":
+              case "setContentLengthLong":
+                headers.put("Content-Length", String.valueOf(args[0]));
+                return null;
+              case "isCommitted":
+                return committed;
+              case "flushBuffer":
+                committed = true;
+                return null;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+
+    String body() {
+      if (writer != null) {
+        writer.flush();
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    String gunzip() throws IOException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+          body.write(buffer, 0, count);
+        }
+      }
+      return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
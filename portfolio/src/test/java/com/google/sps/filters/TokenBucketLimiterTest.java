@@ -0,0 +1,137 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks TokenBucketLimiter's bursts, refills and refunds, with the time passed in. */
+@RunWith(JUnit4.class)
+public final class TokenBucketLimiterTest {
+
+  private static final int CAPACITY = 3;
+  private static final long REFILL_PERIOD_MS = 1000;
+
+  @Test
+  public void allowsABurstUpToCapacity() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    Assert.assertEquals(CAPACITY, acquireAll(limiter, "client", 0));
+  }
+
+  @Test
+  public void refillsOneTokenPerPeriod() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    acquireAll(limiter, "client", 0);
+
+    Assert.assertFalse(limiter.tryAcquire("client", REFILL_PERIOD_MS - 1));
+    Assert.assertTrue(limiter.tryAcquire("client", REFILL_PERIOD_MS));
+    Assert.assertFalse(limiter.tryAcquire("client", REFILL_PERIOD_MS));
+    // Two and a half periods later, two whole tokens have come back.
+    Assert.assertEquals(2, acquireAll(limiter, "client", REFILL_PERIOD_MS * 7 / 2));
+  }
+
+  @Test
+  public void neverRefillsPastCapacity() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    Assert.assertTrue(limiter.tryAcquire("client", 0));
+    Assert.assertEquals(CAPACITY, acquireAll(limiter, "client", 1000 * REFILL_PERIOD_MS));
+  }
+
+  @Test
+  public void clientsHaveTheirOwnBuckets() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    acquireAll(limiter, "first", 0);
+    Assert.assertEquals(CAPACITY, acquireAll(limiter, "second", 0));
+    Assert.assertFalse(limiter.tryAcquire("first", 0));
+  }
+
+  @Test
+  public void refundGivesATokenBack() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    acquireAll(limiter, "client", 0);
+    limiter.refund("client", 0);
+    Assert.assertEquals(1, acquireAll(limiter, "client", 0));
+  }
+
+  @Test
+  public void refundNeverFillsPastCapacity() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    Assert.assertTrue(limiter.tryAcquire("client", 0));
+    limiter.refund("client", 0);
+    limiter.refund("client", 0);
+    Assert.assertEquals(CAPACITY, acquireAll(limiter, "client", 0));
+  }
+
+  @Test
+  public void evictingABucketOnlyForgivesItsClient() {
+    // One bucket per stripe, so other clients soon push out the first one's empty bucket.
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1);
+    acquireAll(limiter, "client", 0);
+    for (int i = 0; i < 1000; i++) {
+      limiter.tryAcquire("other-" + i, 0);
+    }
+    Assert.assertEquals(CAPACITY, acquireAll(limiter, "client", 0));
+  }
+
+  @Test
+  public void concurrentRequestsTakeEachTokenOnce() throws Exception {
+    int capacity = 1000;
+    TokenBucketLimiter limiter = new TokenBucketLimiter(capacity, REFILL_PERIOD_MS, 1000);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Integer>> threads = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        threads.add(executor.submit(() -> {
+          int acquired = 0;
+          for (int i = 0; i < capacity / 2; i++) {
+            if (limiter.tryAcquire("client", 0)) {
+              acquired++;
+            }
+          }
+          return acquired;
+        }));
+      }
+      int acquired = 0;
+      for (Future<Integer> thread : threads) {
+        acquired += thread.get();
+      }
+      Assert.assertEquals(capacity, acquired);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void retryAfterIsOnePeriod() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter(CAPACITY, REFILL_PERIOD_MS, 1000);
+    Assert.assertEquals(REFILL_PERIOD_MS, limiter.getRetryAfterMs());
+  }
+
+  /** Takes tokens at time `now` until the bucket is empty, and returns how many it took. */
+  private static int acquireAll(TokenBucketLimiter limiter, String client, long now) {
+    int acquired = 0;
+    while (limiter.tryAcquire(client, now)) {
+      acquired++;
+    }
+    return acquired;
+  }
+}
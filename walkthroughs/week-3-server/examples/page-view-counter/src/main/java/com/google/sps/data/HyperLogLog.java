@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Estimates how many distinct values were added, in a fixed REGISTER_COUNT bytes however many
+ * there are. The estimate is typically within 2% of the true count.
+ *
+ * <p>Each value is hashed; the first bits of the hash pick a register, which keeps the longest run
+ * of leading zeros seen in the rest. Two sketches merge by keeping the larger of each register, so
+ * sketches from different instances or days combine into the sketch of all their values.
+ *
+ * <p>Not thread-safe; callers synchronize.
+ */
+public final class HyperLogLog {
+
+  /** Bits of the hash that pick the register. */
+  private static final int INDEX_BITS = 12;
+
+  /** Number of registers, and the size of the sketch in bytes. */
+  public static final int REGISTER_COUNT = 1 << INDEX_BITS;
+
+  /** Bias correction for REGISTER_COUNT registers, from the HyperLogLog paper. */
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this.registers = new byte[REGISTER_COUNT];
+  }
+
+  private HyperLogLog(byte[] registers) {
+    this.registers = registers;
+  }
+
+  /** Returns the sketch stored by toBytes(). */
+  public static HyperLogLog fromBytes(byte[] bytes) {
+    if (bytes.length != REGISTER_COUNT) {
+      throw new IllegalArgumentException("A sketch has " + REGISTER_COUNT + " registers.");
+    }
+    return new HyperLogLog(bytes.clone());
+  }
+
+  /** Returns the registers, to be stored and read back with fromBytes(). */
+  public byte[] toBytes() {
+    return registers.clone();
+  }
+
+  /** Adds a value. Returns whether that changed the sketch. */
+  public boolean add(String value) {
+    long hash = hash(value);
+    int index = (int) (hash >>> (64 - INDEX_BITS));
+    // The remaining bits, with a 1 after them so that a hash of all zeros still ends the run.
+    long rest = (hash << INDEX_BITS) | (1L << (INDEX_BITS - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank <= registers[index]) {
+      return false;
+    }
+    registers[index] = rank;
+    return true;
+  }
+
+  /** Adds every value added to another sketch. Returns whether that changed this one. */
+  public boolean merge(HyperLogLog other) {
+    boolean changed = false;
+    for (int i = 0; i < REGISTER_COUNT; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /** Returns the estimated number of distinct values added. */
+  public long estimate() {
+    double sum = 0;
+    int emptyRegisters = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        emptyRegisters++;
+      }
+    }
+    double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+
+    // With few values most registers are empty, and counting them is more accurate.
+    if (estimate <= 2.5 * REGISTER_COUNT && emptyRegisters > 0) {
+      estimate = REGISTER_COUNT * Math.log((double) REGISTER_COUNT / emptyRegisters);
+    }
+    return Math.round(estimate);
+  }
+
+  /** Returns a 64-bit hash of a string: FNV-1a, then the MurmurHash3 finalizer to mix the bits. */
+  private static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
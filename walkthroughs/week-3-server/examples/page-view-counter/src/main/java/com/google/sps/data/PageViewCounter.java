@@ -0,0 +1,267 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts views of each path in memory and saves them to Datastore every few seconds.
+ *
+ * <p>Each view only adds to a LongAdder, which threads can update at once without contending.
+ * Every FLUSH_INTERVAL_MS, one request moves the counts into Datastore. App Engine doesn't keep
+ * background threads running between requests, so the flush runs on the request that finds it
+ * due.
+ *
+ * <p>Each path's total is split over SHARD_COUNT PageViewShard entities. A flush adds to a random
+ * shard, so instances flushing at once rarely write the same entity, and reading the total sums
+ * the shards.
+ */
+public final class PageViewCounter {
+
+  private static final String SHARD_KIND = "PageViewShard";
+
+  /** Number of entities each path's total is split over. */
+  private static final int SHARD_COUNT = 16;
+
+  /** Time between saves of the counts in memory. */
+  private static final long FLUSH_INTERVAL_MS = 5 * 1000;
+
+  /** Most paths saved in one transaction, the limit of entity groups in a cross-group one. */
+  private static final int BATCH_SIZE = 25;
+
+  /** Attempts at saving a batch before its counts are put back for the next flush. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  private static final PageViewCounter instance = new PageViewCounter();
+
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+  private final AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
+  private final AtomicBoolean flushing = new AtomicBoolean();
+
+  private PageViewCounter() {}
+
+  public static PageViewCounter getInstance() {
+    return instance;
+  }
+
+  /** Counts a view of a path and returns its total, saving the counts first if they are due. */
+  public long increment(String path) {
+    Counter counter = getCounter(path);
+    counter.pending.increment();
+    flushIfDue();
+    return counter.getTotal();
+  }
+
+  /** Returns the total views of a path, including those not saved yet. */
+  public long getCount(String path) {
+    return getCounter(path).getTotal();
+  }
+
+  /** Saves the counts in memory to Datastore. Only one thread flushes at a time. */
+  public void flush() {
+    if (!flushing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      lastFlush.set(System.currentTimeMillis());
+      List<Counter> batch = new ArrayList<>(BATCH_SIZE);
+      for (Counter counter : counters.values()) {
+        if (counter.pending.sum() == 0) {
+          continue;
+        }
+        batch.add(counter);
+        if (batch.size() == BATCH_SIZE) {
+          save(batch);
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        save(batch);
+      }
+    } finally {
+      flushing.set(false);
+    }
+  }
+
+  private void flushIfDue() {
+    long last = lastFlush.get();
+    if (System.currentTimeMillis() - last >= FLUSH_INTERVAL_MS
+        && lastFlush.compareAndSet(last, System.currentTimeMillis())) {
+      flush();
+    }
+  }
+
+  private Counter getCounter(String path) {
+    Counter counter = counters.get(path);
+    if (counter == null) {
+      counter = counters.computeIfAbsent(path, Counter::new);
+    }
+    if (!counter.loaded) {
+      counter.load();
+    }
+    return counter;
+  }
+
+  /**
+   * Adds the pending views of each counter to a random shard of it, in one transaction.
+   *
+   * <p>A commit that fails with a DatastoreFailureException or DatastoreTimeoutException may still
+   * have been applied. Each save therefore marks the shards it writes with an id, and retries on
+   * the same shards, so that a retry sees the mark and doesn't add the views twice. If every
+   * attempt fails, the views go back to being pending; should the last attempt have been applied
+   * after all, or another save have written the same shards in between, they are counted twice.
+   * Page views tolerate that rare overcount better than losing counts.
+   */
+  private static void save(List<Counter> batch) {
+    long[] deltas = new long[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      deltas[i] = batch.get(i).pending.sumThenReset();
+      batch.get(i).saving.addAndGet(deltas[i]);
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String saveId = UUID.randomUUID().toString();
+    List<Key> keys = null;
+    boolean saved = false;
+    try {
+      for (int attempt = 0; attempt < MAX_ATTEMPTS && !saved; attempt++) {
+        if (keys == null) {
+          keys = new ArrayList<>(batch.size());
+          for (Counter counter : batch) {
+            keys.add(getShardKey(counter.path, ThreadLocalRandom.current().nextInt(SHARD_COUNT)));
+          }
+        }
+
+        Transaction transaction =
+            datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+        try {
+          Map<Key, Entity> shards = datastore.get(transaction, keys);
+          if (isSaved(shards.values(), saveId)) {
+            // An earlier attempt was applied even though it seemed to fail.
+            saved = true;
+            break;
+          }
+          List<Entity> updated = new ArrayList<>(keys.size());
+          for (int i = 0; i < keys.size(); i++) {
+            Entity shard = shards.get(keys.get(i));
+            if (shard == null) {
+              shard = new Entity(keys.get(i));
+              shard.setUnindexedProperty("count", 0L);
+            }
+            shard.setUnindexedProperty("count", (Long) shard.getProperty("count") + deltas[i]);
+            shard.setUnindexedProperty("lastSave", saveId);
+            updated.add(shard);
+          }
+          datastore.put(transaction, updated);
+          transaction.commit();
+          saved = true;
+        } catch (ConcurrentModificationException e) {
+          // Another instance wrote one of the shards, so nothing was applied; try other shards.
+          System.err.println("Could not save page views: " + e);
+          keys = null;
+        } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+          // The commit may have been applied; try the same shards, which would show it.
+          System.err.println("Could not save page views: " + e);
+        } finally {
+          if (transaction.isActive()) {
+            transaction.rollback();
+          }
+        }
+      }
+    } finally {
+      // Runs whatever went wrong, so that views are never dropped from the total.
+      for (int i = 0; i < batch.size(); i++) {
+        Counter counter = batch.get(i);
+        if (saved) {
+          counter.saved += deltas[i];
+        } else {
+          // Keep the views in memory for the next flush rather than lose them.
+          counter.pending.add(deltas[i]);
+        }
+        counter.saving.addAndGet(-deltas[i]);
+      }
+    }
+
+    // Pick up the views other instances saved meanwhile.
+    for (Counter counter : batch) {
+      counter.load();
+    }
+  }
+
+  /** Returns whether any of the shards was last written by the save with this id. */
+  private static boolean isSaved(Collection<Entity> shards, String saveId) {
+    for (Entity shard : shards) {
+      if (saveId.equals(shard.getProperty("lastSave"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Key getShardKey(String path, int shard) {
+    return KeyFactory.createKey(SHARD_KIND, path + "#" + shard);
+  }
+
+  /** The views of one path: saved, being saved and not saved yet. */
+  private static final class Counter {
+
+    private final String path;
+    private final LongAdder pending = new LongAdder();
+    private final AtomicLong saving = new AtomicLong();
+    private volatile long saved;
+    private volatile boolean loaded;
+
+    Counter(String path) {
+      this.path = path;
+    }
+
+    long getTotal() {
+      return saved + saving.get() + pending.sum();
+    }
+
+    /** Reads the saved total by summing the path's shards. */
+    void load() {
+      List<Key> keys = new ArrayList<>(SHARD_COUNT);
+      for (int shard = 0; shard < SHARD_COUNT; shard++) {
+        keys.add(getShardKey(path, shard));
+      }
+      long total = 0;
+      for (Entity shard : DatastoreServiceFactory.getDatastoreService().get(keys).values()) {
+        total += (Long) shard.getProperty("count");
+      }
+      saved = total;
+      loaded = true;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates how many different visitors viewed each path, per UTC day, with a HyperLogLog sketch
+ * of their visitor IDs.
+ *
+ * <p>Visits are added to a sketch in memory, and every FLUSH_INTERVAL_MS the changed sketches are
+ * merged into VisitorSketch entities in Datastore, one per path and day. Merging only ever raises
+ * registers, so instances can merge into the same entity in any order and a retried merge does no
+ * harm. The visitors over several days are estimated by merging those days' sketches.
+ */
+public final class UniqueVisitorCounter {
+
+  private static final String SKETCH_KIND = "VisitorSketch";
+
+  /** Time between merges of the sketches in memory into Datastore. */
+  private static final long FLUSH_INTERVAL_MS = 5 * 1000;
+
+  /** Attempts at saving a sketch before leaving it for the next flush. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  private static final UniqueVisitorCounter instance = new UniqueVisitorCounter();
+
+  /** Sketches of today's and recent visits not merged into Datastore yet, by entity key name. */
+  private final Map<String, LocalSketch> sketches = new ConcurrentHashMap<>();
+  private final AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
+  private final AtomicBoolean flushing = new AtomicBoolean();
+
+  private UniqueVisitorCounter() {}
+
+  public static UniqueVisitorCounter getInstance() {
+    return instance;
+  }
+
+  /** Records a visit to a path, merging the sketches into Datastore first if they are due. */
+  public void record(String path, String visitorId) {
+    String name = getSketchName(path, today());
+    LocalSketch sketch = sketches.computeIfAbsent(name, LocalSketch::new);
+    synchronized (sketch) {
+      if (sketch.sketch.add(visitorId)) {
+        sketch.dirty = true;
+      }
+    }
+    flushIfDue();
+  }
+
+  /** Returns the estimated number of different visitors to a path over the last `days` days. */
+  public long estimate(String path, int days) {
+    LocalDate today = today();
+    List<Key> keys = new ArrayList<>(days);
+    for (int i = 0; i < days; i++) {
+      keys.add(KeyFactory.createKey(SKETCH_KIND, getSketchName(path, today.minusDays(i))));
+    }
+
+    HyperLogLog merged = new HyperLogLog();
+    for (Entity entity : DatastoreServiceFactory.getDatastoreService().get(keys).values()) {
+      merged.merge(getSketch(entity));
+    }
+    // Include the visits this instance hasn't saved yet.
+    for (Key key : keys) {
+      LocalSketch sketch = sketches.get(key.getName());
+      if (sketch != null) {
+        synchronized (sketch) {
+          merged.merge(sketch.sketch);
+        }
+      }
+    }
+    return merged.estimate();
+  }
+
+  /** Merges the changed sketches into Datastore. Only one thread flushes at a time. */
+  public void flush() {
+    if (!flushing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      lastFlush.set(System.currentTimeMillis());
+      String todaySuffix = "#" + today();
+      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+      for (LocalSketch sketch : sketches.values()) {
+        HyperLogLog copy;
+        synchronized (sketch) {
+          if (!sketch.dirty) {
+            if (!sketch.name.endsWith(todaySuffix)) {
+              // The day is over and saved, so no more visits will be added to this sketch.
+              sketches.remove(sketch.name);
+            }
+            continue;
+          }
+          copy = HyperLogLog.fromBytes(sketch.sketch.toBytes());
+          sketch.dirty = false;
+        }
+        if (!save(datastore, sketch.name, copy)) {
+          synchronized (sketch) {
+            sketch.dirty = true;
+          }
+        }
+      }
+    } finally {
+      flushing.set(false);
+    }
+  }
+
+  private void flushIfDue() {
+    long last = lastFlush.get();
+    if (System.currentTimeMillis() - last >= FLUSH_INTERVAL_MS
+        && lastFlush.compareAndSet(last, System.currentTimeMillis())) {
+      flush();
+    }
+  }
+
+  /** Merges a sketch into its entity. Returns whether that succeeded. */
+  private static boolean save(DatastoreService datastore, String name, HyperLogLog sketch) {
+    Key key = KeyFactory.createKey(SKETCH_KIND, name);
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity entity;
+        try {
+          entity = datastore.get(transaction, key);
+          HyperLogLog stored = getSketch(entity);
+          if (!stored.merge(sketch)) {
+            // Another instance already saved every one of these visitors.
+            return true;
+          }
+          entity.setUnindexedProperty("registers", new Blob(stored.toBytes()));
+        } catch (EntityNotFoundException e) {
+          entity = new Entity(key);
+          entity.setUnindexedProperty("registers", new Blob(sketch.toBytes()));
+        }
+        datastore.put(transaction, entity);
+        transaction.commit();
+        return true;
+      } catch (ConcurrentModificationException | DatastoreFailureException e) {
+        System.err.println("Could not save visitor sketch " + name + ": " + e);
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    return false;
+  }
+
+  private static HyperLogLog getSketch(Entity entity) {
+    return HyperLogLog.fromBytes(((Blob) entity.getProperty("registers")).getBytes());
+  }
+
+  private static String getSketchName(String path, LocalDate day) {
+    return path + "#" + day;
+  }
+
+  private static LocalDate today() {
+    return LocalDate.now(ZoneOffset.UTC);
+  }
+
+  /** A sketch in memory and whether it has visits not saved yet. */
+  private static final class LocalSketch {
+
+    private final String name;
+    private final HyperLogLog sketch = new HyperLogLog();
+    private boolean dirty;
+
+    LocalSketch(String name) {
+      this.name = name;
+    }
+  }
+}
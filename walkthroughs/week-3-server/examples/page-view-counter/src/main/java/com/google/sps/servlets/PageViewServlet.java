@@ -14,24 +14,95 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.data.PageViewCounter;
+import com.google.sps.data.UniqueVisitorCounter;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import javax.servlet.http.Cookie;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that returns HTML that contains the page view count. */
+/**
+ * Servlet that returns HTML that contains the page view count.
+ *
+ * <p>With ?unique=true it shows the estimated number of different visitors instead, over the
+ * ?range= given as day, week or month. Visitors are told apart by a cookie with a random ID.
+ */
 @WebServlet("/page-views")
 public class PageViewServlet extends HttpServlet {
 
-  private int pageViews = 0;
+  private static final String VISITOR_COOKIE = "visitor";
+
+  /** How long browsers keep the visitor cookie, in seconds. */
+  private static final int VISITOR_COOKIE_MAX_AGE = 365 * 24 * 60 * 60;
+
+  /** Number of days in each range that unique visitors can be counted over. */
+  private static final Map<String, Integer> RANGE_DAYS = new LinkedHashMap<>();
+
+  static {
+    RANGE_DAYS.put("day", 1);
+    RANGE_DAYS.put("week", 7);
+    RANGE_DAYS.put("month", 30);
+  }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    pageViews++;
+    boolean unique = Boolean.parseBoolean(request.getParameter("unique"));
+    String range = request.getParameter("range");
+    if (range == null || range.isEmpty()) {
+      range = "day";
+    }
+    Integer days = RANGE_DAYS.get(range);
+    if (unique && days == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "The range must be one of " + RANGE_DAYS.keySet() + ".");
+      return;
+    }
+
+    // The count is kept in Datastore, so it survives restarts and is shared by every instance.
+    String path = request.getRequestURI();
+    long views = PageViewCounter.getInstance().increment(path);
+    UniqueVisitorCounter.getInstance().record(path, getVisitorId(request, response));
 
     response.setContentType("text/html;");
     response.getWriter().println("<h1>Page Views</h1>");
-    response.getWriter().println("<p>This page has been viewed " + pageViews + " times.</p>");
+    if (unique) {
+      long visitors = UniqueVisitorCounter.getInstance().estimate(path, days);
+      response.getWriter().println("<p>This page has had about " + visitors
+          + " different visitors in the last " + range + ".</p>");
+    } else {
+      response.getWriter().println("<p>This page has been viewed " + views + " times.</p>");
+    }
+  }
+
+  /** Returns the ID in the visitor's cookie, giving them a new one if they don't have it. */
+  private static String getVisitorId(HttpServletRequest request, HttpServletResponse response) {
+    Cookie[] cookies = request.getCookies();
+    if (cookies != null) {
+      for (Cookie cookie : cookies) {
+        if (cookie.getName().equals(VISITOR_COOKIE) && !cookie.getValue().isEmpty()) {
+          return cookie.getValue();
+        }
+      }
+    }
+
+    String visitorId = UUID.randomUUID().toString();
+    Cookie cookie = new Cookie(VISITOR_COOKIE, visitorId);
+    cookie.setMaxAge(VISITOR_COOKIE_MAX_AGE);
+    cookie.setPath("/");
+    cookie.setHttpOnly(true);
+    response.addCookie(cookie);
+    return visitorId;
+  }
+
+  @Override
+  public void destroy() {
+    // Save the views counted since the last flush before the instance shuts down.
+    PageViewCounter.getInstance().flush();
+    UniqueVisitorCounter.getInstance().flush();
   }
 }
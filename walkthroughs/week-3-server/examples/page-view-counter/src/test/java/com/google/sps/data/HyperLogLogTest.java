@@ -0,0 +1,104 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks HyperLogLog's estimates, merging and storage. */
+@RunWith(JUnit4.class)
+public final class HyperLogLogTest {
+
+  @Test
+  public void emptySketch() {
+    Assert.assertEquals(0, new HyperLogLog().estimate());
+  }
+
+  @Test
+  public void smallCountsAreNearlyExact() {
+    HyperLogLog sketch = new HyperLogLog();
+    for (int i = 0; i < 100; i++) {
+      sketch.add("visitor-" + i);
+    }
+    Assert.assertEquals(100, sketch.estimate(), 2);
+  }
+
+  @Test
+  public void addingAValueAgainChangesNothing() {
+    HyperLogLog sketch = new HyperLogLog();
+    Assert.assertTrue(sketch.add("visitor"));
+    Assert.assertFalse(sketch.add("visitor"));
+    Assert.assertEquals(1, sketch.estimate());
+  }
+
+  @Test
+  public void largeCountsAreWithinFivePercent() {
+    int count = 200000;
+    HyperLogLog sketch = new HyperLogLog();
+    for (int i = 0; i < count; i++) {
+      sketch.add("visitor-" + i);
+      // Repeats must not raise the estimate.
+      sketch.add("visitor-" + (i / 2));
+    }
+    Assert.assertEquals(count, sketch.estimate(), count * 0.05);
+  }
+
+  @Test
+  public void mergeGivesTheSketchOfBothSets() {
+    HyperLogLog first = new HyperLogLog();
+    HyperLogLog second = new HyperLogLog();
+    HyperLogLog both = new HyperLogLog();
+    for (int i = 0; i < 20000; i++) {
+      // The two sets share 4000 values.
+      if (i < 12000) {
+        first.add("visitor-" + i);
+      }
+      if (i >= 8000) {
+        second.add("visitor-" + i);
+      }
+      both.add("visitor-" + i);
+    }
+
+    Assert.assertTrue(first.merge(second));
+    Assert.assertArrayEquals(both.toBytes(), first.toBytes());
+    Assert.assertFalse(first.merge(second));
+  }
+
+  @Test
+  public void bytesRoundTrip() {
+    HyperLogLog sketch = new HyperLogLog();
+    for (int i = 0; i < 5000; i++) {
+      sketch.add("visitor-" + i);
+    }
+
+    HyperLogLog copy = HyperLogLog.fromBytes(sketch.toBytes());
+    Assert.assertArrayEquals(sketch.toBytes(), copy.toBytes());
+    Assert.assertEquals(sketch.estimate(), copy.estimate());
+
+    // The copy doesn't share registers with the original.
+    byte[] registers = sketch.toBytes();
+    for (int i = 0; i < 5000; i++) {
+      copy.add("other visitor-" + i);
+    }
+    Assert.assertArrayEquals(registers, sketch.toBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fromBytesRejectsTheWrongSize() {
+    HyperLogLog.fromBytes(new byte[HyperLogLog.REGISTER_COUNT - 1]);
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.PageViewCounter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that views counted from many threads at once are neither lost nor counted twice. */
+@RunWith(JUnit4.class)
+public final class PageViewServletTest {
+
+  private static final String PATH = "/page-views";
+  private static final int VISITORS = 8;
+  private static final int VIEWS_PER_VISITOR = 500;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void concurrentViewsAreAllCounted() throws Exception {
+    PageViewServlet servlet = new PageViewServlet();
+    // Datastore calls need the test environment, which is only set on this thread.
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ExecutorService executor = Executors.newFixedThreadPool(VISITORS);
+    try {
+      List<Future<Void>> visitors = new ArrayList<>();
+      for (int v = 0; v < VISITORS; v++) {
+        Cookie[] cookies = {new Cookie("visitor", "visitor-" + v)};
+        visitors.add(executor.submit((Callable<Void>) () -> {
+          ApiProxy.setEnvironmentForCurrentThread(environment);
+          for (int i = 0; i < VIEWS_PER_VISITOR; i++) {
+            servlet.doGet(request(null, cookies), response(new StringWriter()));
+          }
+          return null;
+        }));
+      }
+      for (Future<Void> visitor : visitors) {
+        visitor.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    long views = VISITORS * VIEWS_PER_VISITOR;
+    Assert.assertEquals(views, PageViewCounter.getInstance().getCount(PATH));
+
+    servlet.destroy();
+    long saved = 0;
+    Query query = new Query("PageViewShard");
+    for (Entity shard : DatastoreServiceFactory.getDatastoreService().prepare(query).asIterable()) {
+      saved += (Long) shard.getProperty("count");
+    }
+    Assert.assertEquals(views, saved);
+    Assert.assertEquals(views, PageViewCounter.getInstance().getCount(PATH));
+
+    StringWriter body = new StringWriter();
+    servlet.doGet(request("true", new Cookie[] {new Cookie("visitor", "visitor-0")}),
+        response(body));
+    Assert.assertTrue(body.toString(),
+        body.toString().contains("about " + VISITORS + " different visitors"));
+  }
+
+  /** Returns a request for PATH with the given ?unique= and cookies. Others return null. */
+  private static HttpServletRequest request(String unique, Cookie[] cookies) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getParameter":
+              return "unique".equals(args[0]) ? unique : null;
+            case "getRequestURI":
+              return PATH;
+            case "getCookies":
+              return cookies;
+            default:
+              return null;
+          }
+        });
+  }
+
+  /** Returns a response that writes its body to `body` and ignores everything else. */
+  private static HttpServletResponse response(StringWriter body) {
+    PrintWriter writer = new PrintWriter(body);
+    return (HttpServletResponse) Proxy.newProxyInstance(
+        HttpServletResponse.class.getClassLoader(),
+        new Class<?>[] {HttpServletResponse.class},
+        (proxy, method, args) -> method.getName().equals("getWriter") ? writer : null);
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks indexes at random in proportion to their weights, in constant time, with Vose's alias
+ * method.
+ *
+ * <p>Each index gets a column of height 1 split between itself and one other index, its alias.
+ * Picking chooses a column uniformly and then one of its two indexes by a second random number.
+ * The columns are built once in linear time, and the sampler is immutable, so threads can share
+ * it.
+ */
+public final class AliasSampler {
+
+  private final double[] probability;
+  private final int[] alias;
+
+  /**
+   * Builds the columns for the given weights.
+   *
+   * @throws IllegalArgumentException if there are no weights, or any is not positive and finite
+   */
+  public AliasSampler(double[] weights, int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("There must be at least one weight.");
+    }
+    double total = 0;
+    for (int i = 0; i < count; i++) {
+      if (!(weights[i] > 0) || Double.isInfinite(weights[i])) {
+        throw new IllegalArgumentException("Weight " + i + " is not positive: " + weights[i]);
+      }
+      total += weights[i];
+    }
+
+    probability = new double[count];
+    alias = new int[count];
+
+    // Scale the weights so they average 1, and sort the indexes into those below and above it.
+    double[] scaled = new double[count];
+    int[] small = new int[count];
+    int[] large = new int[count];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < count; i++) {
+      scaled[i] = weights[i] * count / total;
+      if (scaled[i] < 1) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+
+    // Fill each small index's column with part of a large one.
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      probability[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1;
+      if (scaled[more] < 1) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+    // What is left is 1 up to rounding error, so those columns are entirely their own.
+    while (largeCount > 0) {
+      probability[large[--largeCount]] = 1;
+    }
+    while (smallCount > 0) {
+      probability[small[--smallCount]] = 1;
+    }
+  }
+
+  /** Returns the number of indexes. */
+  public int size() {
+    return probability.length;
+  }
+
+  /** Returns a random index, each one in proportion to its weight. */
+  public int next() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int column = random.nextInt(probability.length);
+    return random.nextDouble() < probability[column] ? column : alias[column];
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Quotes read from a text file, stored already encoded as UTF-8 and picked at random by weight.
+ *
+ * <p>Every quote is kept in one byte array, with an array of where each starts, rather than as a
+ * String object each, so millions of quotes take little more memory than their text. Each entry
+ * ends with a newline, so it can be written to a response as is.
+ *
+ * <p>The file has one quote per line. A line may start with a weight and a tab; lines without one
+ * have a weight of 1. A tab after anything but a number is part of the quote. Blank lines and lines
+ * starting with # are skipped.
+ */
+public final class QuoteTable {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final byte[] text;
+  private final int[] offsets;
+  private final AliasSampler sampler;
+
+  private QuoteTable(byte[] text, int[] offsets, AliasSampler sampler) {
+    this.text = text;
+    this.offsets = offsets;
+    this.sampler = sampler;
+  }
+
+  /**
+   * Reads the quotes in a file.
+   *
+   * @throws IllegalArgumentException if a weight is invalid or there are no quotes
+   */
+  public static QuoteTable read(InputStream in) throws IOException {
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    int[] offsets = new int[INITIAL_CAPACITY];
+    double[] weights = new double[INITIAL_CAPACITY];
+    int count = 0;
+
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      if (line.trim().isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+
+      double weight = 1;
+      int tab = line.indexOf('\t');
+      Double prefix = tab >= 0 ? parseNumber(line.substring(0, tab)) : null;
+      if (prefix != null) {
+        weight = prefix;
+        if (!(weight > 0) || Double.isInfinite(weight)) {
+          throw new IllegalArgumentException("Line " + lineNumber + " has an invalid weight.");
+        }
+        line = line.substring(tab + 1);
+      }
+
+      if (count + 1 == offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        weights = Arrays.copyOf(weights, weights.length * 2);
+      }
+      offsets[count] = text.size();
+      weights[count] = weight;
+      count++;
+      byte[] quote = line.trim().getBytes(StandardCharsets.UTF_8);
+      text.write(quote, 0, quote.length);
+      text.write('\n');
+    }
+    if (count == 0) {
+      throw new IllegalArgumentException("There are no quotes.");
+    }
+    offsets[count] = text.size();
+
+    return new QuoteTable(
+        text.toByteArray(), Arrays.copyOf(offsets, count + 1), new AliasSampler(weights, count));
+  }
+
+  /** Returns the number a string holds, or null if it isn't one. */
+  private static Double parseNumber(String string) {
+    try {
+      return Double.parseDouble(string);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Returns the number of quotes. */
+  public int size() {
+    return sampler.size();
+  }
+
+  /** Returns the index of a random quote, each one in proportion to its weight. */
+  public int pick() {
+    return sampler.next();
+  }
+
+  /** Returns the number of bytes write() writes for a quote. */
+  public int getLength(int index) {
+    return offsets[index + 1] - offsets[index];
+  }
+
+  /** Writes a quote, encoded as UTF-8 and followed by a newline. */
+  public void write(int index, OutputStream out) throws IOException {
+    out.write(text, offsets[index], getLength(index));
+  }
+}
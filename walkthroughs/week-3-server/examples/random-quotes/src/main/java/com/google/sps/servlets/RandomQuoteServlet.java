@@ -14,45 +14,46 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.data.QuoteTable;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStream;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that returns a random quote. */
+/**
+ * Servlet that returns a random quote.
+ *
+ * <p>The quotes are read once from quotes.txt on the classpath. Picking one takes constant time
+ * however many there are, and its text is written already encoded.
+ */
 @WebServlet("/random-quote")
 public final class RandomQuoteServlet extends HttpServlet {
 
-  private List<String> quotes;
+  private static final String QUOTES_RESOURCE = "/quotes.txt";
+
+  private QuoteTable quotes;
 
   @Override
-  public void init() {
-    quotes = new ArrayList<>();
-    quotes.add(
-        "A ship in port is safe, but that is not what ships are for. "
-            + "Sail out to sea and do new things. - Grace Hopper");
-    quotes.add("They told me computers could only do arithmetic. - Grace Hopper");
-    quotes.add("A ship in port is safe, but that's not what ships are built for. - Grace Hopper");
-    quotes.add("It is much easier to apologise than it is to get permission. - Grace Hopper");
-    quotes.add("If you can't give me poetry, can't you give me poetical science? - Ada Lovelace");
-    quotes.add("I am in a charming state of confusion. - Ada Lovelace");
-    quotes.add(
-        "The Analytical Engine weaves algebraic patterns, "
-            + "just as the Jacquard loom weaves flowers and leaves. - Ada Lovelace");
-    quotes.add(
-        "Sometimes it is the people no one can imagine anything of "
-            + "who do the things no one can imagine. - Alan Turing");
-    quotes.add("Those who can imagine anything, can create the impossible. - Alan Turing");
+  public void init() throws ServletException {
+    try (InputStream in = RandomQuoteServlet.class.getResourceAsStream(QUOTES_RESOURCE)) {
+      if (in == null) {
+        throw new ServletException(QUOTES_RESOURCE + " is missing from the classpath.");
+      }
+      quotes = QuoteTable.read(in);
+    } catch (IOException | IllegalArgumentException e) {
+      throw new ServletException("Could not read " + QUOTES_RESOURCE, e);
+    }
   }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    String quote = quotes.get((int) (Math.random() * quotes.size()));
+    int quote = quotes.pick();
 
-    response.setContentType("text/html;");
-    response.getWriter().println(quote);
+    response.setContentType("text/html;charset=UTF-8");
+    response.setContentLength(quotes.getLength(quote));
+    quotes.write(quote, response.getOutputStream());
   }
 }
@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that AliasSampler picks indexes in proportion to their weights. */
+@RunWith(JUnit4.class)
+public final class AliasSamplerTest {
+
+  private static final int SAMPLES = 400000;
+
+  /** How far each index's share of the samples may be from its weight's share. */
+  private static final double TOLERANCE = 0.01;
+
+  @Test
+  public void picksInProportionToWeights() {
+    assertProportional(new double[] {1, 2, 3, 4}, 4);
+  }
+
+  @Test
+  public void picksUnevenWeights() {
+    assertProportional(new double[] {0.001, 50, 0.5, 1000, 7}, 5);
+  }
+
+  @Test
+  public void picksEqualWeights() {
+    assertProportional(new double[] {3, 3, 3}, 3);
+  }
+
+  @Test
+  public void singleWeightIsAlwaysPicked() {
+    AliasSampler sampler = new AliasSampler(new double[] {5}, 1);
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(0, sampler.next());
+    }
+  }
+
+  @Test
+  public void onlyTheFirstCountWeightsAreUsed() {
+    AliasSampler sampler = new AliasSampler(new double[] {1, 1, 100, 0}, 2);
+    Assert.assertEquals(2, sampler.size());
+    for (int i = 0; i < 1000; i++) {
+      int index = sampler.next();
+      Assert.assertTrue(index == 0 || index == 1);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNoWeights() {
+    new AliasSampler(new double[0], 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsZeroWeight() {
+    new AliasSampler(new double[] {1, 0}, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNegativeWeight() {
+    new AliasSampler(new double[] {1, -1}, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNaNWeight() {
+    new AliasSampler(new double[] {1, Double.NaN}, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInfiniteWeight() {
+    new AliasSampler(new double[] {1, Double.POSITIVE_INFINITY}, 2);
+  }
+
+  private static void assertProportional(double[] weights, int count) {
+    AliasSampler sampler = new AliasSampler(weights, count);
+    int[] picks = new int[count];
+    for (int i = 0; i < SAMPLES; i++) {
+      picks[sampler.next()]++;
+    }
+
+    double total = 0;
+    for (int i = 0; i < count; i++) {
+      total += weights[i];
+    }
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(
+          "Index " + i, weights[i] / total, (double) picks[i] / SAMPLES, TOLERANCE);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks how QuoteTable reads quotes and their weights. */
+@RunWith(JUnit4.class)
+public final class QuoteTableTest {
+
+  @Test
+  public void readsOneQuotePerLine() throws IOException {
+    QuoteTable quotes = read("# Comment\nFirst quote\n\n  Second quote  \nCafé ☕\n");
+
+    Assert.assertEquals(3, quotes.size());
+    Assert.assertEquals("First quote\n", text(quotes, 0));
+    Assert.assertEquals("Second quote\n", text(quotes, 1));
+    Assert.assertEquals("Café ☕\n", text(quotes, 2));
+    Assert.assertEquals("Café ☕\n".getBytes(StandardCharsets.UTF_8).length, quotes.getLength(2));
+  }
+
+  @Test
+  public void numberBeforeATabIsAWeight() throws IOException {
+    QuoteTable quotes = read("1000\tCommon\n0.001\tRare\n");
+
+    Assert.assertEquals("Common\n", text(quotes, 0));
+    Assert.assertEquals("Rare\n", text(quotes, 1));
+    int common = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (quotes.pick() == 0) {
+        common++;
+      }
+    }
+    Assert.assertTrue(common + " common", common > 990);
+  }
+
+  @Test
+  public void otherTabsArePartOfTheQuote() throws IOException {
+    QuoteTable quotes = read("Name:\tquote\n\tIndented\n");
+
+    Assert.assertEquals(2, quotes.size());
+    Assert.assertEquals("Name:\tquote\n", text(quotes, 0));
+    Assert.assertEquals("Indented\n", text(quotes, 1));
+  }
+
+  @Test
+  public void invalidWeightsAreRejected() throws IOException {
+    for (String weight : new String[] {"0", "-1", "NaN", "Infinity"}) {
+      try {
+        read("Fine\n" + weight + "\tQuote\n");
+        Assert.fail(weight);
+      } catch (IllegalArgumentException e) {
+        Assert.assertEquals("Line 2 has an invalid weight.", e.getMessage());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fileWithoutQuotesIsRejected() throws IOException {
+    read("# Only a comment\n\n");
+  }
+
+  private static QuoteTable read(String file) throws IOException {
+    return QuoteTable.read(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String text(QuoteTable quotes, int index) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    quotes.write(index, out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
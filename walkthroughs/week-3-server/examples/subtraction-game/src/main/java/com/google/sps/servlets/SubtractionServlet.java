@@ -22,36 +22,53 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that encapsulates the subtraction game. */
+/**
+ * Servlet that encapsulates the subtraction game.
+ *
+ * <p>Turns change the game one at a time while holding gameLock. After each turn the game is
+ * converted to JSON once, so GET requests can return that snapshot without waiting for the lock.
+ */
 @WebServlet("/subtraction-game")
 public final class SubtractionServlet extends HttpServlet {
 
+  private final Gson gson = new Gson();
+  private final Object gameLock = new Object();
+
+  /** The game being played. Only read or changed while holding gameLock. */
   private SubtractionGame game = new SubtractionGame();
 
+  /** JSON of the game as of the last finished turn. */
+  private volatile String gameJson = gson.toJson(game);
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     response.setContentType("application/json");
-    String json = new Gson().toJson(game);
-    response.getWriter().println(json);
+    response.getWriter().println(gameJson);
   }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // If the user sends another POST request after the game is over, then start a new game.
-    if (game.isGameOver()) {
-      game = new SubtractionGame();
-    }
-
     // Get the input from the form.
     int playerChoice = getPlayerChoice(request);
+
+    synchronized (gameLock) {
+      // If the user sends another POST request after the game is over, then start a new game.
+      if (game.isGameOver()) {
+        game = new SubtractionGame();
+      }
+
+      if (playerChoice != -1) {
+        game.takePlayerTurn(playerChoice);
+      }
+      gameJson = gson.toJson(game);
+    }
+
     if (playerChoice == -1) {
       response.setContentType("text/html");
       response.getWriter().println("Please enter an integer between 1 and 3.");
       return;
     }
 
-    game.takePlayerTurn(playerChoice);
-
     // Redirect back to the HTML page.
     response.sendRedirect("/index.html");
   }
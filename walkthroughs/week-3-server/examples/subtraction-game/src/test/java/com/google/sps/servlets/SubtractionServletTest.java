@@ -0,0 +1,145 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Plays the game from many threads at once, checking that turns don't interleave and that GET
+ * requests only ever see the game as of a finished turn.
+ */
+@RunWith(JUnit4.class)
+public final class SubtractionServletTest {
+
+  private static final int PLAYERS = 8;
+  private static final int TURNS_PER_PLAYER = 500;
+
+  @Test
+  public void concurrentTurnsKeepTheGameConsistent() throws Exception {
+    SubtractionServlet servlet = new SubtractionServlet();
+    ExecutorService executor = Executors.newFixedThreadPool(PLAYERS + 1);
+    AtomicBoolean playing = new AtomicBoolean(true);
+    try {
+      Future<Integer> reader = executor.submit(() -> {
+        int snapshots = 0;
+        while (playing.get() || snapshots == 0) {
+          StringWriter body = new StringWriter();
+          servlet.doGet(request(null), response(body));
+          assertConsistent(body.toString());
+          snapshots++;
+        }
+        return snapshots;
+      });
+
+      List<Future<Void>> players = new ArrayList<>();
+      for (int p = 0; p < PLAYERS; p++) {
+        players.add(executor.submit((Callable<Void>) () -> {
+          for (int i = 0; i < TURNS_PER_PLAYER; i++) {
+            servlet.doPost(request("1"), response(new StringWriter()));
+          }
+          return null;
+        }));
+      }
+      for (Future<Void> player : players) {
+        player.get();
+      }
+      playing.set(false);
+      Assert.assertTrue(reader.get() > 0);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    StringWriter body = new StringWriter();
+    servlet.doGet(request(null), response(body));
+    assertConsistent(body.toString());
+  }
+
+  @Test
+  public void invalidChoiceDoesNotTakeATurn() throws Exception {
+    SubtractionServlet servlet = new SubtractionServlet();
+    servlet.doPost(request("4"), response(new StringWriter()));
+
+    StringWriter body = new StringWriter();
+    servlet.doGet(request(null), response(body));
+    JsonObject game = JsonParser.parseString(body.toString()).getAsJsonObject();
+    Assert.assertEquals(21, game.get("currentTotal").getAsInt());
+    Assert.assertEquals(0, game.getAsJsonArray("history").size());
+  }
+
+  /**
+   * Checks that the moves in a game's history add up to its total, and that the game is over
+   * exactly when the history ends with a win.
+   */
+  private static void assertConsistent(String json) {
+    JsonObject game = JsonParser.parseString(json).getAsJsonObject();
+    int currentTotal = game.get("currentTotal").getAsInt();
+    boolean gameOver = game.get("gameOver").getAsBoolean();
+    JsonArray history = game.getAsJsonArray("history");
+
+    int subtracted = 0;
+    String lastTotal = "New total: 21";
+    String last = null;
+    for (JsonElement entry : history) {
+      last = entry.getAsString();
+      if (last.contains(" subtracted ")) {
+        subtracted += Integer.parseInt(last.substring(last.lastIndexOf(' ') + 1));
+      } else if (last.startsWith("New total: ")) {
+        lastTotal = last;
+      }
+    }
+    Assert.assertEquals(json, 21 - subtracted, currentTotal);
+    Assert.assertEquals(json, "New total: " + currentTotal, lastTotal);
+    Assert.assertEquals(json, last != null && last.contains("rematch"), gameOver);
+  }
+
+  /** Returns a request choosing `playerChoice`. Other methods return null. */
+  private static HttpServletRequest request(String playerChoice) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) ->
+            method.getName().equals("getParameter") && "player-choice".equals(args[0])
+                ? playerChoice
+                : null);
+  }
+
+  /** Returns a response that writes its body to `body` and ignores everything else. */
+  private static HttpServletResponse response(StringWriter body) {
+    PrintWriter writer = new PrintWriter(body);
+    return (HttpServletResponse) Proxy.newProxyInstance(
+        HttpServletResponse.class.getClassLoader(),
+        new Class<?>[] {HttpServletResponse.class},
+        (proxy, method, args) -> method.getName().equals("getWriter") ? writer : null);
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Estimates how often each word appeared in a fixed amount of memory, however many different
+ * words there are.
+ *
+ * <p>Each of DEPTH rows of counters is indexed by a different hash of the word. An estimate is the
+ * smallest of the word's counters, which other words can only have added to, so it is never below
+ * the true count. Adding only raises the counters that are at the word's current estimate
+ * (conservative update), which keeps the overestimates small.
+ *
+ * <p>Not thread-safe; callers add from one thread.
+ */
+public final class CountMinSketch {
+
+  private static final int DEPTH = 4;
+
+  /** Counters per row; a power of two. */
+  private static final int WIDTH = 1 << 16;
+
+  private final long[][] counters = new long[DEPTH][WIDTH];
+
+  /**
+   * Adds `count` occurrences of the word with the given WordCounts.hash(), and returns its new
+   * estimate.
+   */
+  public long add(long hash, long count) {
+    long estimate = estimate(hash) + count;
+    for (int row = 0; row < DEPTH; row++) {
+      int column = column(hash, row);
+      if (counters[row][column] < estimate) {
+        counters[row][column] = estimate;
+      }
+    }
+    return estimate;
+  }
+
+  /** Returns the estimated count of the word with the given WordCounts.hash(). */
+  public long estimate(long hash) {
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, counters[row][column(hash, row)]);
+    }
+    return estimate;
+  }
+
+  /** Picks a row's counter by double hashing from the two halves of the 64-bit hash. */
+  private static int column(long hash, int row) {
+    int first = (int) hash;
+    int second = (int) (hash >>> 32) | 1;
+    return (first + row * second) & (WIDTH - 1);
+  }
+}
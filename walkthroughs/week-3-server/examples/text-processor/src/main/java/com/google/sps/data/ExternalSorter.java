@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more words than fit in memory.
+ *
+ * <p>Words are collected in memory until they take about `memoryLimitBytes`, then sorted and
+ * written to a temporary file as a run. Once every word is added, the runs are merged, at most
+ * MAX_MERGE_WIDTH at a time, by repeatedly taking the smallest of their next words. Words must not
+ * contain line breaks, since runs hold one word per line.
+ */
+public final class ExternalSorter implements Closeable {
+
+  /** Most runs read at once while merging; more are first merged into fewer, longer runs. */
+  private static final int MAX_MERGE_WIDTH = 64;
+
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+  /** Rough memory taken by a String besides its characters. */
+  private static final int STRING_OVERHEAD_BYTES = 56;
+
+  private final long memoryLimitBytes;
+  private final List<String> words = new ArrayList<>();
+  private final List<Path> runs = new ArrayList<>();
+  private long wordBytes = 0;
+
+  public ExternalSorter(long memoryLimitBytes) {
+    this.memoryLimitBytes = memoryLimitBytes;
+  }
+
+  /** Adds a word, writing the words so far to a run if they fill the memory limit. */
+  public void add(String word) throws IOException {
+    words.add(word);
+    wordBytes += STRING_OVERHEAD_BYTES + 2L * word.length();
+    if (wordBytes >= memoryLimitBytes) {
+      Collections.sort(words);
+      runs.add(writeRun(words));
+      words.clear();
+      wordBytes = 0;
+    }
+  }
+
+  /** Writes every word added, in order, each followed by a newline. */
+  public void writeSorted(Writer out) throws IOException {
+    Collections.sort(words);
+    if (runs.isEmpty()) {
+      for (String word : words) {
+        out.write(word);
+        out.write('\n');
+      }
+      return;
+    }
+
+    if (!words.isEmpty()) {
+      runs.add(writeRun(words));
+      words.clear();
+    }
+    // Merge groups of runs until there are few enough to merge in one pass.
+    while (runs.size() > MAX_MERGE_WIDTH) {
+      List<Path> group = new ArrayList<>(runs.subList(0, MAX_MERGE_WIDTH));
+      runs.subList(0, MAX_MERGE_WIDTH).clear();
+      Path merged = Files.createTempFile("words", ".run");
+      runs.add(merged);
+      try (Writer writer = Files.newBufferedWriter(merged, StandardCharsets.UTF_8)) {
+        merge(group, writer);
+      }
+      for (Path run : group) {
+        Files.deleteIfExists(run);
+      }
+    }
+    merge(runs, out);
+  }
+
+  /** Deletes the runs. */
+  @Override
+  public void close() throws IOException {
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+    runs.clear();
+  }
+
+  private static Path writeRun(List<String> sortedWords) throws IOException {
+    Path run = Files.createTempFile("words", ".run");
+    try (BufferedWriter writer = new BufferedWriter(
+        Files.newBufferedWriter(run, StandardCharsets.UTF_8), FILE_BUFFER_SIZE)) {
+      for (String word : sortedWords) {
+        writer.write(word);
+        writer.write('\n');
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(run);
+      throw e;
+    }
+    return run;
+  }
+
+  /** Writes the words of sorted runs in order. */
+  private static void merge(List<Path> sortedRuns, Writer out) throws IOException {
+    List<BufferedReader> readers = new ArrayList<>(sortedRuns.size());
+    try {
+      PriorityQueue<RunHead> heads = new PriorityQueue<>(sortedRuns.size());
+      for (Path run : sortedRuns) {
+        BufferedReader reader = new BufferedReader(
+            Files.newBufferedReader(run, StandardCharsets.UTF_8), FILE_BUFFER_SIZE);
+        readers.add(reader);
+        String word = reader.readLine();
+        if (word != null) {
+          heads.add(new RunHead(word, reader));
+        }
+      }
+
+      while (!heads.isEmpty()) {
+        RunHead head = heads.poll();
+        out.write(head.word);
+        out.write('\n');
+        String next = head.reader.readLine();
+        if (next != null) {
+          heads.add(new RunHead(next, head.reader));
+        }
+      }
+    } finally {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  /** The next word of a run being merged. */
+  private static final class RunHead implements Comparable<RunHead> {
+
+    private final String word;
+    private final BufferedReader reader;
+
+    RunHead(String word, BufferedReader reader) {
+      this.word = word;
+      this.reader = reader;
+    }
+
+    @Override
+    public int compareTo(RunHead other) {
+      return word.compareTo(other.word);
+    }
+  }
+}
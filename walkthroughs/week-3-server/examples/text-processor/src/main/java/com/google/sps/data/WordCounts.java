@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts of words, in a hash table keyed by a 64-bit hash of each word.
+ *
+ * <p>Hashes, counts and words sit in parallel arrays probed linearly, so counting a word costs no
+ * allocation, and words are only compared when their 64-bit hashes match.
+ *
+ * <p>Not thread-safe; each thread counts into its own and the results are merged.
+ */
+public final class WordCounts {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private long[] hashes = new long[INITIAL_CAPACITY];
+  private long[] counts = new long[INITIAL_CAPACITY];
+  private String[] words = new String[INITIAL_CAPACITY];
+  private int size = 0;
+  private long total = 0;
+
+  /** Returns a 64-bit hash of a word: FNV-1a, then the MurmurHash3 finalizer to mix the bits. */
+  public static long hash(String word) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < word.length(); i++) {
+      hash ^= word.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** Adds `count` occurrences of a word whose hash() is `hash`. */
+  public void add(String word, long hash, long count) {
+    total += count;
+    int mask = words.length - 1;
+    int slot = (int) hash & mask;
+    while (words[slot] != null) {
+      if (hashes[slot] == hash && words[slot].equals(word)) {
+        counts[slot] += count;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    hashes[slot] = hash;
+    counts[slot] = count;
+    words[slot] = word;
+    // Keep the table at most half full so probes stay short.
+    if (++size * 2 > words.length) {
+      grow();
+    }
+  }
+
+  /** Adds every count of another table to this one. */
+  public void addAll(WordCounts other) {
+    for (int i = 0; i < other.words.length; i++) {
+      if (other.words[i] != null) {
+        add(other.words[i], other.hashes[i], other.counts[i]);
+      }
+    }
+  }
+
+  /** Returns the number of different words. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of words counted, including repeats. */
+  public long getTotal() {
+    return total;
+  }
+
+  /** Calls `consumer` with each word, its hash and its count. */
+  public void forEach(Consumer consumer) {
+    for (int i = 0; i < words.length; i++) {
+      if (words[i] != null) {
+        consumer.accept(words[i], hashes[i], counts[i]);
+      }
+    }
+  }
+
+  /** Returns the `k` most frequent words, most frequent first, or every word if `k` is 0. */
+  public List<WordCount> getTop(int k) {
+    Comparator<WordCount> order = WordCount.BY_COUNT;
+    int limit = k == 0 ? size : k;
+    // Keep the best `limit` words in a heap whose head is the worst of them.
+    PriorityQueue<WordCount> best = new PriorityQueue<>(Math.max(1, limit), order);
+    for (int i = 0; i < words.length; i++) {
+      if (words[i] == null) {
+        continue;
+      }
+      if (best.size() < limit) {
+        best.add(new WordCount(words[i], counts[i]));
+      } else if (counts[i] >= best.peek().getCount()) {
+        // Break ties the same way as the final order, whatever order the table is in.
+        WordCount candidate = new WordCount(words[i], counts[i]);
+        if (order.compare(candidate, best.peek()) > 0) {
+          best.poll();
+          best.add(candidate);
+        }
+      }
+    }
+    List<WordCount> top = new ArrayList<>(best);
+    top.sort(order.reversed());
+    return top;
+  }
+
+  private void grow() {
+    long[] oldHashes = hashes;
+    long[] oldCounts = counts;
+    String[] oldWords = words;
+    hashes = new long[oldWords.length * 2];
+    counts = new long[oldWords.length * 2];
+    words = new String[oldWords.length * 2];
+    size = 0;
+    long oldTotal = total;
+    for (int i = 0; i < oldWords.length; i++) {
+      if (oldWords[i] != null) {
+        add(oldWords[i], oldHashes[i], oldCounts[i]);
+      }
+    }
+    total = oldTotal;
+  }
+
+  /** Receives the entries of a WordCounts. */
+  public interface Consumer {
+    void accept(String word, long hash, long count);
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the words of a text, in the format WordScanner reads, on every core.
+ *
+ * <p>The text is read in chunks. Each chunk is cut at separators into one piece per thread, and
+ * the pieces are counted into WordCounts tables on an executor, then merged into the totals. The
+ * chunks are merged as they finish, while later chunks are still being counted.
+ *
+ * <p>Exact counts need memory for every different word. The approximate mode instead adds each
+ * chunk's counts to a CountMinSketch and keeps only the current top k words, so its memory stays
+ * fixed however large the vocabulary.
+ */
+public final class WordFrequencies {
+
+  /** Characters read from the text per chunk. */
+  private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+  /** Fewest characters worth counting on a thread of their own. */
+  private static final int MIN_PIECE_SIZE = 64 * 1024;
+
+  /** Threads to count on, one per core. */
+  public static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  /** Chunks being counted at once; reading waits for the oldest past this. */
+  private static final int MAX_CHUNKS_IN_FLIGHT = 2;
+
+  private WordFrequencies() {}
+
+  /**
+   * Returns the `k` most frequent words in the text, most frequent first. `k` of 0 returns every
+   * word, and is only allowed for exact counts.
+   *
+   * @param upperCase whether to count words in upper case, so that case doesn't tell them apart
+   * @param approximate whether to estimate the counts in fixed memory. Estimates are never below
+   *     the true count, and the words returned may miss some whose counts are close to the kth.
+   * @param executor counts the pieces of the text; it should have PARALLELISM threads
+   */
+  public static List<WordCount> getTop(
+      Reader text, int k, boolean upperCase, boolean approximate, ExecutorService executor)
+      throws IOException {
+    if (approximate && k == 0) {
+      throw new IllegalArgumentException("Approximate counts can only return the top words.");
+    }
+    Totals totals = approximate ? new ApproximateTotals(k) : new ExactTotals();
+
+    // The counts of each chunk's pieces, oldest chunk first.
+    Deque<List<Future<WordCounts>>> pending = new ArrayDeque<>();
+    char[] buffer = new char[CHUNK_SIZE];
+    int filled = 0;
+    while (true) {
+      int read = text.read(buffer, filled, buffer.length - filled);
+      if (read > 0) {
+        filled += read;
+        if (filled < buffer.length) {
+          continue;
+        }
+      }
+      boolean finished = read < 0;
+
+      // Count up to the last separator, and carry the partial word after it into the next chunk.
+      int end = finished ? filled : lastSeparator(buffer, 0, filled) + 1;
+      if (end == 0 && !finished) {
+        throw new IOException("A word is longer than " + CHUNK_SIZE + " characters.");
+      }
+      char[] chunk = Arrays.copyOf(buffer, end);
+      pending.add(countPieces(chunk, upperCase, executor));
+      System.arraycopy(buffer, end, buffer, 0, filled - end);
+      filled -= end;
+
+      if (pending.size() > MAX_CHUNKS_IN_FLIGHT) {
+        addAll(totals, pending.poll());
+      }
+      if (finished) {
+        break;
+      }
+    }
+    while (!pending.isEmpty()) {
+      addAll(totals, pending.poll());
+    }
+    return totals.getTop(k);
+  }
+
+  /** Cuts a chunk at separators into one piece per thread and starts counting each. */
+  private static List<Future<WordCounts>> countPieces(
+      char[] chunk, boolean upperCase, ExecutorService executor) {
+    int pieces = Math.max(1, Math.min(PARALLELISM, chunk.length / MIN_PIECE_SIZE));
+    List<Future<WordCounts>> counts = new ArrayList<>(pieces);
+    int start = 0;
+    for (int i = 1; i <= pieces && start < chunk.length; i++) {
+      int end = chunk.length;
+      if (i < pieces) {
+        // End the piece after a separator so that no word is cut in two. Without one, the piece
+        // is empty and the next one takes its text.
+        int target = (int) ((long) chunk.length * i / pieces);
+        end = lastSeparator(chunk, start, target) + 1;
+      }
+      if (end > start) {
+        int pieceStart = start;
+        int pieceEnd = end;
+        counts.add(executor.submit(() -> count(chunk, pieceStart, pieceEnd, upperCase)));
+      }
+      start = end;
+    }
+    return counts;
+  }
+
+  /** Counts the words in a range of a chunk. */
+  private static WordCounts count(char[] chunk, int start, int end, boolean upperCase)
+      throws IOException {
+    WordCounts counts = new WordCounts();
+    WordScanner scanner = new WordScanner(new CharArrayReader(chunk, start, end - start));
+    String word;
+    while ((word = scanner.next()) != null) {
+      if (upperCase) {
+        word = word.toUpperCase();
+      }
+      counts.add(word, WordCounts.hash(word), 1);
+    }
+    return counts;
+  }
+
+  /** Waits for the counts of a chunk's pieces and adds them to the totals. */
+  private static void addAll(Totals totals, List<Future<WordCounts>> pieces) throws IOException {
+    for (Future<WordCounts> piece : pieces) {
+      try {
+        totals.add(piece.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while counting words.", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Could not count words.", e.getCause());
+      }
+    }
+  }
+
+  /** Returns the index of the last separator in a range, or start - 1 if there is none. */
+  private static int lastSeparator(char[] text, int start, int end) {
+    for (int i = end - 1; i >= start; i--) {
+      if (isSeparator(text[i])) {
+        return i;
+      }
+    }
+    return start - 1;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == ',' || c == '\n' || c == '\r';
+  }
+
+  /** The counts of the chunks finished so far. */
+  private interface Totals {
+    void add(WordCounts chunkCounts);
+
+    List<WordCount> getTop(int k);
+  }
+
+  /** Every word's exact count. */
+  private static final class ExactTotals implements Totals {
+
+    private WordCounts counts = new WordCounts();
+
+    @Override
+    public void add(WordCounts chunkCounts) {
+      if (chunkCounts.size() > counts.size()) {
+        chunkCounts.addAll(counts);
+        counts = chunkCounts;
+      } else {
+        counts.addAll(chunkCounts);
+      }
+    }
+
+    @Override
+    public List<WordCount> getTop(int k) {
+      return counts.getTop(k);
+    }
+  }
+
+  /** Estimated counts of every word, and the k words with the highest estimates. */
+  private static final class ApproximateTotals implements Totals {
+
+    private final int k;
+    private final CountMinSketch sketch = new CountMinSketch();
+    private final Map<String, WordCount> top = new HashMap<>();
+    private final PriorityQueue<WordCount> topByCount = new PriorityQueue<>(WordCount.BY_COUNT);
+
+    ApproximateTotals(int k) {
+      this.k = k;
+    }
+
+    @Override
+    public void add(WordCounts chunkCounts) {
+      chunkCounts.forEach((word, hash, count) -> offer(word, sketch.add(hash, count)));
+    }
+
+    /** Puts a word among the top k if its new estimate is high enough. */
+    private void offer(String word, long estimate) {
+      WordCount updated = new WordCount(word, estimate);
+      WordCount current = top.get(word);
+      if (current != null) {
+        topByCount.remove(current);
+      } else if (top.size() == k) {
+        if (WordCount.BY_COUNT.compare(updated, topByCount.peek()) <= 0) {
+          return;
+        }
+        top.remove(topByCount.poll().getWord());
+      }
+      top.put(word, updated);
+      topByCount.add(updated);
+    }
+
+    @Override
+    public List<WordCount> getTop(int k) {
+      List<WordCount> result = new ArrayList<>(topByCount);
+      result.sort(WordCount.BY_COUNT.reversed());
+      return result;
+    }
+  }
+}
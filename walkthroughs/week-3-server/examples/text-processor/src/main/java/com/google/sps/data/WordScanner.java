@@ -0,0 +1,81 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits text read from a stream into words separated by commas or line breaks, with the
+ * whitespace around each word removed and empty words skipped.
+ *
+ * <p>The text is read through one fixed buffer, so only the current word is ever held in memory
+ * however long the text is.
+ */
+public final class WordScanner {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Longest word accepted, so a stream without separators can't fill the heap. */
+  public static final int MAX_WORD_LENGTH = 64 * 1024;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private final StringBuilder word = new StringBuilder();
+  private int position = 0;
+  private int limit = 0;
+
+  public WordScanner(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Returns the next word, or null if there are no more.
+   *
+   * @throws IOException if reading fails or a word is longer than MAX_WORD_LENGTH
+   */
+  public String next() throws IOException {
+    word.setLength(0);
+    // Length of the word up to its last character that isn't whitespace.
+    int trimmedLength = 0;
+    while (true) {
+      if (position == limit) {
+        limit = reader.read(buffer, 0, BUFFER_SIZE);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return trimmedLength > 0 ? word.substring(0, trimmedLength) : null;
+        }
+      }
+
+      char c = buffer[position++];
+      if (c == ',' || c == '\n' || c == '\r') {
+        if (trimmedLength > 0) {
+          return word.substring(0, trimmedLength);
+        }
+        word.setLength(0);
+      } else if (!Character.isWhitespace(c)) {
+        word.append(c);
+        trimmedLength = word.length();
+      } else if (trimmedLength > 0) {
+        // Leading whitespace is dropped; whitespace inside the word is kept.
+        word.append(c);
+      }
+      if (word.length() > MAX_WORD_LENGTH) {
+        throw new IOException("A word is longer than " + MAX_WORD_LENGTH + " characters.");
+      }
+    }
+  }
+}
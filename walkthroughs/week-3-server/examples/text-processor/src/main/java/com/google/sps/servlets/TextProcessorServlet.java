@@ -14,19 +14,45 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.ThreadManager;
+import com.google.sps.data.ExternalSorter;
+import com.google.sps.data.WordCount;
+import com.google.sps.data.WordFrequencies;
+import com.google.sps.data.WordScanner;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that processes text. */
+/**
+ * Servlet that processes text.
+ *
+ * <p>The form sends the text as the text-input parameter. Larger texts can instead be posted as the
+ * request body with a text/plain content type and the options in the query string, e.g.
+ * /text?sort=true. The body is then read as a stream of words separated by commas or line breaks,
+ * and the words are returned one per line, so the text never has to fit in memory. With
+ * frequency=true, the most frequent words are returned instead, with their counts.
+ */
 @WebServlet("/text")
 public final class TextProcessorServlet extends HttpServlet {
 
+  /** Memory used to sort a streamed text before the sort spills to temporary files. */
+  private static final long SORT_MEMORY_BYTES = 32 * 1024 * 1024;
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String contentType = request.getContentType();
+    if (contentType != null && contentType.startsWith("text/plain")) {
+      processStream(request, response);
+      return;
+    }
+
     // Get the input from the form.
     String text = getParameter(request, "text-input", "");
     boolean upperCase = Boolean.parseBoolean(getParameter(request, "upper-case", "false"));
@@ -50,6 +76,86 @@ public final class TextProcessorServlet extends HttpServlet {
     response.getWriter().println(Arrays.toString(words));
   }
 
+  /** Processes text posted as the request body, a word at a time. */
+  private void processStream(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    // The body isn't a form, so these parameters can only come from the query string.
+    boolean upperCase = Boolean.parseBoolean(getParameter(request, "upper-case", "false"));
+    boolean sort = Boolean.parseBoolean(getParameter(request, "sort", "false"));
+    boolean frequency = Boolean.parseBoolean(getParameter(request, "frequency", "false"));
+    if (request.getCharacterEncoding() == null) {
+      request.setCharacterEncoding("UTF-8");
+    }
+    if (frequency) {
+      processFrequencies(request, response, upperCase);
+      return;
+    }
+    WordScanner scanner = new WordScanner(request.getReader());
+
+    response.setContentType("text/plain;charset=UTF-8");
+    PrintWriter out = response.getWriter();
+    if (!sort) {
+      String word;
+      while ((word = scanner.next()) != null) {
+        out.write(upperCase ? word.toUpperCase() : word);
+        out.write('\n');
+      }
+      return;
+    }
+
+    try (ExternalSorter sorter = new ExternalSorter(SORT_MEMORY_BYTES)) {
+      String word;
+      while ((word = scanner.next()) != null) {
+        sorter.add(upperCase ? word.toUpperCase() : word);
+      }
+      sorter.writeSorted(out);
+    }
+  }
+
+  /**
+   * Responds with the most frequent words of the posted text, one per line, each followed by a tab
+   * and its count. The top parameter sets how many (10 by default, 0 for every word), and
+   * approximate=true estimates the counts in fixed memory for texts with huge vocabularies.
+   */
+  private void processFrequencies(
+      HttpServletRequest request, HttpServletResponse response, boolean upperCase)
+      throws IOException {
+    boolean approximate = Boolean.parseBoolean(getParameter(request, "approximate", "false"));
+    int top;
+    try {
+      top = Integer.parseInt(getParameter(request, "top", "10"));
+    } catch (NumberFormatException e) {
+      top = -1;
+    }
+    if (top < 0) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid top.");
+      return;
+    }
+    if (top == 0 && approximate) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Approximate counts need a top above 0.");
+      return;
+    }
+
+    List<WordCount> counts;
+    ExecutorService executor = Executors.newFixedThreadPool(
+        WordFrequencies.PARALLELISM, ThreadManager.currentRequestThreadFactory());
+    try {
+      counts = WordFrequencies.getTop(request.getReader(), top, upperCase, approximate, executor);
+    } finally {
+      // Request threads may not outlive the request.
+      executor.shutdownNow();
+    }
+    response.setContentType("text/plain;charset=UTF-8");
+    PrintWriter out = response.getWriter();
+    for (WordCount count : counts) {
+      out.write(count.getWord());
+      out.write('\t');
+      out.write(Long.toString(count.getCount()));
+      out.write('\n');
+    }
+  }
+
   /**
    * @return the request parameter, or the default value if the parameter
    *         was not specified by the client
@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks CountMinSketch's estimates against exact counts. */
+@RunWith(JUnit4.class)
+public final class CountMinSketchTest {
+
+  @Test
+  public void unseenWordsAreZero() {
+    Assert.assertEquals(0, new CountMinSketch().estimate(WordCounts.hash("word")));
+  }
+
+  @Test
+  public void fewWordsAreExact() {
+    CountMinSketch sketch = new CountMinSketch();
+    Assert.assertEquals(3, sketch.add(WordCounts.hash("apple"), 3));
+    Assert.assertEquals(1, sketch.add(WordCounts.hash("banana"), 1));
+    Assert.assertEquals(5, sketch.add(WordCounts.hash("apple"), 2));
+
+    Assert.assertEquals(5, sketch.estimate(WordCounts.hash("apple")));
+    Assert.assertEquals(1, sketch.estimate(WordCounts.hash("banana")));
+  }
+
+  @Test
+  public void estimatesAreNeverBelowTheCountAndRarelyFarAbove() {
+    CountMinSketch sketch = new CountMinSketch();
+    Map<String, Long> counts = new HashMap<>();
+    Random random = new Random(1);
+    long total = 0;
+    // Many more different words than a row has counters, with a few much more common than others.
+    for (int i = 0; i < 1000000; i++) {
+      int rank = 1 + random.nextInt(1 + random.nextInt(500000));
+      String word = "word" + rank;
+      long estimate = sketch.add(WordCounts.hash(word), 1);
+      long count = counts.merge(word, 1L, Long::sum);
+      Assert.assertTrue(word, estimate >= count);
+      total++;
+    }
+
+    long overestimated = 0;
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      long estimate = sketch.estimate(WordCounts.hash(entry.getKey()));
+      Assert.assertTrue(entry.getKey(), estimate >= entry.getValue());
+      // A count-min sketch overestimates by at most e / WIDTH of the total with high probability.
+      if (estimate - entry.getValue() > total * Math.E / (1 << 16)) {
+        overestimated++;
+      }
+    }
+    Assert.assertTrue(overestimated + " overestimated", overestimated < counts.size() / 100);
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that ExternalSorter sorts in memory and through runs on disk alike. */
+@RunWith(JUnit4.class)
+public final class ExternalSorterTest {
+
+  @Test
+  public void sortsInMemory() throws IOException {
+    assertSorts(randomWords(1000), 1L << 30);
+  }
+
+  @Test
+  public void sortsThroughRuns() throws IOException {
+    // About a hundred words per run.
+    assertSorts(randomWords(10000), 100 * 70);
+  }
+
+  @Test
+  public void mergesMoreRunsThanFitInOnePass() throws IOException {
+    // Every word is a run of its own, so the runs are merged in several passes.
+    assertSorts(randomWords(5000), 1);
+  }
+
+  @Test
+  public void keepsRepeatedWords() throws IOException {
+    assertSorts(Arrays.asList("b", "a", "b", "c", "a", "b", "a", "a"), 1);
+  }
+
+  @Test
+  public void sortsNothing() throws IOException {
+    assertSorts(Collections.emptyList(), 1);
+  }
+
+  @Test
+  public void closeDeletesTheRuns() throws IOException {
+    Set<Path> before = listRuns();
+    try (ExternalSorter sorter = new ExternalSorter(1)) {
+      for (String word : randomWords(200)) {
+        sorter.add(word);
+      }
+      Assert.assertTrue(listRuns().size() > before.size());
+      sorter.writeSorted(new StringWriter());
+    }
+    Assert.assertEquals(before, listRuns());
+  }
+
+  private static void assertSorts(List<String> words, long memoryLimitBytes) throws IOException {
+    StringWriter out = new StringWriter();
+    try (ExternalSorter sorter = new ExternalSorter(memoryLimitBytes)) {
+      for (String word : words) {
+        sorter.add(word);
+      }
+      sorter.writeSorted(out);
+    }
+
+    List<String> expected = new ArrayList<>(words);
+    Collections.sort(expected);
+    StringBuilder text = new StringBuilder();
+    for (String word : expected) {
+      text.append(word).append('\n');
+    }
+    Assert.assertEquals(text.toString(), out.toString());
+  }
+
+  /** Returns random words, some repeated, with letters, digits, spaces and non-ASCII letters. */
+  private static List<String> randomWords(int count) {
+    String letters = "abcxyzABC019 éü中";
+    Random random = new Random(count);
+    List<String> words = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      char[] word = new char[1 + random.nextInt(8)];
+      for (int c = 0; c < word.length; c++) {
+        word[c] = letters.charAt(random.nextInt(letters.length()));
+      }
+      words.add(new String(word));
+    }
+    return words;
+  }
+
+  /** Returns the temporary files that hold runs. */
+  private static Set<Path> listRuns() throws IOException {
+    Set<Path> runs = new HashSet<>();
+    Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "words*.run")) {
+      for (Path file : files) {
+        runs.add(file);
+      }
+    }
+    return runs;
+  }
+}
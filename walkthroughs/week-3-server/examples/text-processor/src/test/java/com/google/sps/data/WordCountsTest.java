@@ -0,0 +1,134 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks WordCounts' counts, merging and top words. */
+@RunWith(JUnit4.class)
+public final class WordCountsTest {
+
+  @Test
+  public void countsLikeAHashMap() {
+    WordCounts counts = new WordCounts();
+    Map<String, Long> expected = new HashMap<>();
+    Random random = new Random(1);
+    // Enough different words for the table to grow several times.
+    for (int i = 0; i < 100000; i++) {
+      String word = "word" + random.nextInt(20000);
+      counts.add(word, WordCounts.hash(word), 1);
+      expected.merge(word, 1L, Long::sum);
+    }
+
+    Assert.assertEquals(expected, toMap(counts));
+    Assert.assertEquals(expected.size(), counts.size());
+    Assert.assertEquals(100000, counts.getTotal());
+  }
+
+  @Test
+  public void wordsWithTheSameHashAreCountedApart() {
+    WordCounts counts = new WordCounts();
+    counts.add("apple", 42, 1);
+    counts.add("banana", 42, 2);
+    counts.add("apple", 42, 3);
+
+    Map<String, Long> expected = new HashMap<>();
+    expected.put("apple", 4L);
+    expected.put("banana", 2L);
+    Assert.assertEquals(expected, toMap(counts));
+    Assert.assertEquals(2, counts.size());
+  }
+
+  @Test
+  public void addAllMergesCounts() {
+    WordCounts first = new WordCounts();
+    WordCounts second = new WordCounts();
+    for (int i = 0; i < 3000; i++) {
+      add(first, "word" + i, 1);
+      add(second, "word" + (i + 1000), 2);
+    }
+
+    first.addAll(second);
+    Map<String, Long> merged = toMap(first);
+    Assert.assertEquals(4000, first.size());
+    Assert.assertEquals(3000 + 6000, first.getTotal());
+    Assert.assertEquals(Long.valueOf(1), merged.get("word0"));
+    Assert.assertEquals(Long.valueOf(3), merged.get("word1000"));
+    Assert.assertEquals(Long.valueOf(2), merged.get("word3999"));
+  }
+
+  @Test
+  public void getTopOrdersByCountThenWord() {
+    WordCounts counts = new WordCounts();
+    add(counts, "pear", 2);
+    add(counts, "apple", 5);
+    add(counts, "fig", 2);
+    add(counts, "kiwi", 7);
+    add(counts, "date", 2);
+
+    Assert.assertEquals(
+        Arrays.asList("kiwi 7", "apple 5", "date 2", "fig 2", "pear 2"), format(counts.getTop(0)));
+    Assert.assertEquals(Arrays.asList("kiwi 7", "apple 5", "date 2"), format(counts.getTop(3)));
+    Assert.assertEquals(format(counts.getTop(0)), format(counts.getTop(10)));
+  }
+
+  @Test
+  public void getTopBreaksTiesTheSameWayWhateverTheTableOrder() {
+    WordCounts counts = new WordCounts();
+    for (int i = 0; i < 5000; i++) {
+      add(counts, String.format("word%04d", i), 1);
+    }
+
+    Assert.assertEquals(
+        Arrays.asList("word0000 1", "word0001 1", "word0002 1"), format(counts.getTop(3)));
+  }
+
+  @Test
+  public void emptyCounts() {
+    WordCounts counts = new WordCounts();
+    Assert.assertEquals(0, counts.size());
+    Assert.assertTrue(counts.getTop(0).isEmpty());
+    Assert.assertTrue(counts.getTop(5).isEmpty());
+  }
+
+  private static void add(WordCounts counts, String word, long count) {
+    counts.add(word, WordCounts.hash(word), count);
+  }
+
+  private static Map<String, Long> toMap(WordCounts counts) {
+    Map<String, Long> map = new HashMap<>();
+    counts.forEach((word, hash, count) -> {
+      Assert.assertNull("Counted twice: " + word, map.put(word, count));
+    });
+    return map;
+  }
+
+  private static List<String> format(List<WordCount> top) {
+    List<String> formatted = new ArrayList<>();
+    for (WordCount wordCount : top) {
+      formatted.add(wordCount.getWord() + " " + wordCount.getCount());
+    }
+    return formatted;
+  }
+}
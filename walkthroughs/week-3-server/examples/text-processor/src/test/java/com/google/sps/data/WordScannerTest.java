@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks how WordScanner splits and trims words. */
+@RunWith(JUnit4.class)
+public final class WordScannerTest {
+
+  @Test
+  public void splitsOnCommasAndLineBreaks() throws IOException {
+    Assert.assertEquals(
+        Arrays.asList("a", "b", "c", "d", "e"), scan("a,b\nc\r\nd\re"));
+  }
+
+  @Test
+  public void trimsWhitespaceAroundWords() throws IOException {
+    Assert.assertEquals(Arrays.asList("apple", "banana"), scan("  apple \t,\t banana  \n"));
+  }
+
+  @Test
+  public void keepsWhitespaceInsideWords() throws IOException {
+    Assert.assertEquals(Arrays.asList("ice cream", "hot  dog"), scan(" ice cream , hot  dog "));
+  }
+
+  @Test
+  public void skipsEmptyWords() throws IOException {
+    Assert.assertEquals(Arrays.asList("a", "b"), scan(",,a, ,\n\n  \r\nb,,"));
+  }
+
+  @Test
+  public void emptyText() throws IOException {
+    Assert.assertEquals(Collections.emptyList(), scan(""));
+    Assert.assertEquals(Collections.emptyList(), scan(" , \n "));
+  }
+
+  @Test
+  public void readsWordsAcrossBufferBoundaries() throws IOException {
+    List<String> expected = new ArrayList<>();
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      expected.add("word " + i);
+      text.append(" word ").append(i).append(i % 2 == 0 ? " ,\n" : ",");
+    }
+    Assert.assertEquals(expected, scan(text.toString()));
+  }
+
+  @Test
+  public void acceptsTheLongestWord() throws IOException {
+    String longest = repeat('x', WordScanner.MAX_WORD_LENGTH);
+    Assert.assertEquals(Arrays.asList(longest, "y"), scan(longest + ",y"));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsLongerWords() throws IOException {
+    scan(repeat('x', WordScanner.MAX_WORD_LENGTH + 1));
+  }
+
+  private static List<String> scan(String text) throws IOException {
+    WordScanner scanner = new WordScanner(new StringReader(text));
+    List<String> words = new ArrayList<>();
+    String word;
+    while ((word = scanner.next()) != null) {
+      words.add(word);
+    }
+    // Once done, the scanner stays done.
+    Assert.assertNull(scanner.next());
+    return words;
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
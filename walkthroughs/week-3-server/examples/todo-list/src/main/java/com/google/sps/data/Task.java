@@ -20,10 +20,12 @@ public final class Task {
   private final long id;
   private final String title;
   private final long timestamp;
+  private final boolean completed;
 
-  public Task(long id, String title, long timestamp) {
+  public Task(long id, String title, long timestamp, boolean completed) {
     this.id = id;
     this.title = title;
     this.timestamp = timestamp;
+    this.completed = completed;
   }
 }
\ No newline at end of file
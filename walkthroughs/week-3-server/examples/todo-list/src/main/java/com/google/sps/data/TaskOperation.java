@@ -0,0 +1,42 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * One operation in a request to /batch-tasks: create a task with a title, or complete or delete the
+ * task with an id.
+ */
+public final class TaskOperation {
+
+  public static final String CREATE = "create";
+  public static final String COMPLETE = "complete";
+  public static final String DELETE = "delete";
+
+  private String action;
+  private String title;
+  private Long id;
+
+  public String getAction() {
+    return action;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public Long getId() {
+    return id;
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/** One page of tasks and the cursor for the page after it. */
+public final class TaskPage {
+
+  private final List<Task> tasks;
+  private final String cursor;
+
+  /** @param cursor the web-safe cursor for the next page, or null if this is the last page */
+  public TaskPage(List<Task> tasks, String cursor) {
+    this.tasks = tasks;
+    this.cursor = cursor;
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/** The result of one TaskOperation: the id of the task, and an error if the operation failed. */
+public final class TaskResult {
+
+  private final Long id;
+  private final String error;
+
+  private TaskResult(Long id, String error) {
+    this.id = id;
+    this.error = error;
+  }
+
+  public static TaskResult success(long id) {
+    return new TaskResult(id, null);
+  }
+
+  /** @param id the id of the task, or null if it isn't known */
+  public static TaskResult failure(Long id, String error) {
+    return new TaskResult(id, error);
+  }
+}
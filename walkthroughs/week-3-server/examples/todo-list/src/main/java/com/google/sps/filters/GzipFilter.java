@@ -0,0 +1,462 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.filters;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Filter that gzips text and JSON responses for clients that accept it.
+ *
+ * <p>The first MIN_COMPRESS_SIZE bytes of a response are held back: a response that ends before
+ * then is sent as is, since gzip would barely shrink it. Deflaters and buffers are pooled and
+ * reused across requests rather than allocated for each one.
+ */
+@WebFilter("/*")
+public final class GzipFilter implements Filter {
+
+  /** Responses smaller than this are not worth compressing. */
+  private static final int MIN_COMPRESS_SIZE = 1024;
+
+  /** Size of the buffer that compressed output is written through. */
+  private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+  /** Most idle deflaters kept for reuse; extra ones are freed when their request ends. */
+  private static final int POOL_SIZE = 16;
+
+  /** Gzip member header: magic number, deflate method, no flags, no time, unknown OS. */
+  private static final byte[] GZIP_HEADER =
+      {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private static final BlockingQueue<Compressor> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    if (httpRequest.getMethod().equals("HEAD") || !acceptsGzip(httpRequest)) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    httpResponse.addHeader("Vary", "Accept-Encoding");
+    GzipResponse gzipResponse = new GzipResponse(httpResponse);
+    try {
+      chain.doFilter(request, gzipResponse);
+      gzipResponse.finish();
+    } finally {
+      gzipResponse.release();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    Compressor compressor;
+    while ((compressor = pool.poll()) != null) {
+      compressor.deflater.end();
+    }
+  }
+
+  /** Returns whether the Accept-Encoding header allows gzip. */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      if (!name.equals("gzip") && !name.equals("*")) {
+        continue;
+      }
+      // "gzip;q=0" means the client refuses gzip.
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=") && parseQuality(parameter.substring(2)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static double parseQuality(String quality) {
+    try {
+      return Double.parseDouble(quality);
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+  /** Returns whether a response of this content type is text that compresses well. */
+  private static boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type = contentType.toLowerCase(Locale.ROOT);
+    return type.startsWith("text/")
+        || type.contains("json")
+        || type.contains("javascript")
+        || type.contains("xml");
+  }
+
+  private static Compressor borrowCompressor() {
+    Compressor compressor = pool.poll();
+    return compressor != null ? compressor : new Compressor();
+  }
+
+  private static void returnCompressor(Compressor compressor) {
+    compressor.reset();
+    if (!pool.offer(compressor)) {
+      compressor.deflater.end();
+    }
+  }
+
+  /** A deflater and the buffers used with it, reused across requests. */
+  private static final class Compressor {
+
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final CRC32 crc = new CRC32();
+    final byte[] pending = new byte[MIN_COMPRESS_SIZE];
+    final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+
+    void reset() {
+      deflater.reset();
+      crc.reset();
+    }
+  }
+
+  /** Response that writes its body through a GzipOutputStream. */
+  private static final class GzipResponse extends HttpServletResponseWrapper {
+
+    private final HttpServletResponse response;
+    private GzipOutputStream stream;
+    private PrintWriter writer;
+    private long contentLength = -1;
+
+    GzipResponse(HttpServletResponse response) {
+      super(response);
+      this.response = response;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (writer != null) {
+        throw new IllegalStateException("getWriter() has already been called");
+      }
+      return getStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        if (stream != null) {
+          throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        writer = new PrintWriter(new OutputStreamWriter(getStream(), getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {
+      setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+      // The length is only known to be right if the body ends up uncompressed.
+      contentLength = length;
+      if (stream != null && stream.state == State.PASSTHROUGH) {
+        response.setContentLengthLong(length);
+      }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      if (name.equalsIgnoreCase("Content-Length")) {
+        setContentLengthLong(Long.parseLong(value));
+      } else {
+        super.setHeader(name, value);
+      }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      if (name.equalsIgnoreCase("Content-Length")) {
+        setContentLengthLong(Long.parseLong(value));
+      } else {
+        super.addHeader(name, value);
+      }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      if (stream != null) {
+        stream.flushPending();
+      }
+      super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+      super.resetBuffer();
+      if (stream != null) {
+        stream.discardPending();
+      }
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      contentLength = -1;
+      if (stream != null) {
+        stream.discardPending();
+      }
+    }
+
+    /** Writes whatever the servlet left in the buffers. */
+    void finish() throws IOException {
+      if (writer != null) {
+        writer.close();
+      } else if (stream != null) {
+        stream.close();
+      }
+    }
+
+    void release() {
+      if (stream != null) {
+        stream.release();
+      }
+    }
+
+    private GzipOutputStream getStream() throws IOException {
+      if (stream == null) {
+        stream = new GzipOutputStream(this, response.getOutputStream());
+      }
+      return stream;
+    }
+  }
+
+  private enum State {
+    /** Holding back the start of the body until it is clear whether to compress. */
+    BUFFERING,
+    /** Sending the body uncompressed. */
+    PASSTHROUGH,
+    /** Sending the body gzipped. */
+    COMPRESSING,
+    CLOSED
+  }
+
+  /** Stream that buffers the start of the body, then either gzips it or passes it through. */
+  private static final class GzipOutputStream extends ServletOutputStream {
+
+    private final GzipResponse response;
+    private final ServletOutputStream out;
+    private Compressor compressor = borrowCompressor();
+    private State state = State.BUFFERING;
+    private int pendingCount = 0;
+    private long uncompressedSize = 0;
+
+    GzipOutputStream(GzipResponse response, ServletOutputStream out) {
+      this.response = response;
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (state == State.BUFFERING && pendingCount < compressor.pending.length) {
+        compressor.pending[pendingCount++] = (byte) b;
+      } else {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      switch (state) {
+        case BUFFERING:
+          if (pendingCount + length <= compressor.pending.length) {
+            System.arraycopy(bytes, offset, compressor.pending, pendingCount, length);
+            pendingCount += length;
+            return;
+          }
+          start(true, false);
+          write(bytes, offset, length);
+          return;
+        case PASSTHROUGH:
+          out.write(bytes, offset, length);
+          return;
+        case COMPRESSING:
+          deflate(bytes, offset, length, Deflater.NO_FLUSH);
+          return;
+        default:
+          throw new IOException("Stream is closed");
+      }
+    }
+
+    /**
+     * Sends what has been written so far. While the start of the body is still being held back this
+     * does nothing, because writers flush their stream when closed; use flushPending() to force it.
+     */
+    @Override
+    public void flush() throws IOException {
+      if (state == State.COMPRESSING) {
+        deflate(new byte[0], 0, 0, Deflater.SYNC_FLUSH);
+      }
+      // Flushing the underlying stream commits the headers, so it must wait for the decision.
+      if (state == State.COMPRESSING || state == State.PASSTHROUGH) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (state == State.CLOSED) {
+        return;
+      }
+      if (state == State.BUFFERING) {
+        // The whole body fit in the buffer, so it is too small to be worth compressing.
+        start(false, true);
+      }
+      if (state == State.COMPRESSING) {
+        Deflater deflater = compressor.deflater;
+        deflater.finish();
+        while (!deflater.finished()) {
+          int count = deflater.deflate(compressor.output, 0, compressor.output.length);
+          out.write(compressor.output, 0, count);
+        }
+        writeIntLittleEndian((int) compressor.crc.getValue());
+        writeIntLittleEndian((int) uncompressedSize);
+      }
+      state = State.CLOSED;
+      release();
+      out.close();
+    }
+
+    @Override
+    public boolean isReady() {
+      return out.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      out.setWriteListener(writeListener);
+    }
+
+    /** Stops holding back the start of the body, for HttpServletResponse.flushBuffer(). */
+    void flushPending() throws IOException {
+      if (state == State.BUFFERING) {
+        // A servlet that flushes is streaming, so decide now rather than wait for more bytes.
+        start(true, false);
+      }
+      flush();
+    }
+
+    /** Drops buffered bytes that haven't been sent yet, for HttpServletResponse.resetBuffer(). */
+    void discardPending() {
+      if (state == State.BUFFERING) {
+        pendingCount = 0;
+      }
+    }
+
+    /** Returns the compressor to the pool once it is no longer needed. */
+    void release() {
+      if (compressor != null) {
+        returnCompressor(compressor);
+        compressor = null;
+      }
+    }
+
+    /**
+     * Chooses whether to compress, sets the headers to match and sends the buffered bytes.
+     *
+     * @param complete whether the buffered bytes are the whole body
+     */
+    private void start(boolean compress, boolean complete) throws IOException {
+      compress = compress
+          && isCompressible(response.getContentType())
+          && !response.containsHeader("Content-Encoding")
+          && response.getStatus() != HttpServletResponse.SC_NO_CONTENT
+          && response.getStatus() != HttpServletResponse.SC_NOT_MODIFIED;
+
+      byte[] pending = compressor.pending;
+      int count = pendingCount;
+      pendingCount = 0;
+      if (compress) {
+        state = State.COMPRESSING;
+        response.response.setHeader("Content-Encoding", "gzip");
+        out.write(GZIP_HEADER);
+        deflate(pending, 0, count, Deflater.NO_FLUSH);
+      } else {
+        state = State.PASSTHROUGH;
+        if (response.contentLength >= 0) {
+          response.response.setContentLengthLong(response.contentLength);
+        } else if (complete && !response.isCommitted()) {
+          response.response.setContentLength(count);
+        }
+        out.write(pending, 0, count);
+      }
+    }
+
+    private void deflate(byte[] bytes, int offset, int length, int flushMode) throws IOException {
+      Deflater deflater = compressor.deflater;
+      compressor.crc.update(bytes, offset, length);
+      uncompressedSize += length;
+      deflater.setInput(bytes, offset, length);
+
+      // Keep going until the deflater has consumed the input (and, when flushing, produced all of
+      // its output), since it holds on to the caller's array.
+      int count;
+      do {
+        count = deflater.deflate(compressor.output, 0, compressor.output.length, flushMode);
+        out.write(compressor.output, 0, count);
+      } while (!deflater.needsInput() || count == compressor.output.length);
+    }
+
+    private void writeIntLittleEndian(int value) throws IOException {
+      out.write(value & 0xff);
+      out.write((value >> 8) & 0xff);
+      out.write((value >> 16) & 0xff);
+      out.write((value >> 24) & 0xff);
+    }
+  }
+}
@@ -0,0 +1,314 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.sps.data.TaskOperation;
+import com.google.sps.data.TaskResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet responsible for creating, completing and deleting many tasks at once.
+ *
+ * <p>The request body is a JSON array of operations, e.g.
+ * [{"action": "create", "title": "Shop"}, {"action": "complete", "id": 12},
+ * {"action": "delete", "id": 7}]. The response is an array with the result of each operation in
+ * the same order: {"id": 13} on success, or {"id": 7, "error": "..."} on failure. Operations are
+ * applied independently rather than in order, so one failing doesn't stop the others.
+ *
+ * <p>Creates and deletes are grouped into batch puts and deletes of at most CHUNK_SIZE entities,
+ * which are all sent to Datastore at once and then awaited. Completes are read and written in
+ * transactions of at most MAX_TRANSACTION_GROUPS tasks, also side by side. A whole batch costs a
+ * few round trips however many tasks it touches. A task can't be both completed and deleted in one
+ * batch.
+ */
+@WebServlet("/batch-tasks")
+public class BatchTasksServlet extends HttpServlet {
+
+  /** Most entities sent in one Datastore call; a batch put or delete allows at most 500. */
+  private static final int CHUNK_SIZE = 500;
+
+  /** Most entity groups, and so tasks, that one cross-group transaction may touch. */
+  private static final int MAX_TRANSACTION_GROUPS = 25;
+
+  /** Most operations accepted in one request. */
+  private static final int MAX_OPERATIONS = 5000;
+
+  private static final Gson GSON = new Gson();
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    TaskOperation[] operations;
+    try {
+      operations = GSON.fromJson(request.getReader(), TaskOperation[].class);
+    } catch (JsonParseException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON.");
+      return;
+    }
+    if (operations == null || operations.length == 0 || operations.length > MAX_OPERATIONS) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Send from 1 to " + MAX_OPERATIONS + " operations.");
+      return;
+    }
+
+    TaskResult[] results = new TaskResult[operations.length];
+    List<Integer> creates = new ArrayList<>();
+    // The operations on each task id, so that a task named twice is only written once.
+    Map<Long, List<Integer>> completes = new LinkedHashMap<>();
+    Map<Long, List<Integer>> deletes = new LinkedHashMap<>();
+    for (int i = 0; i < operations.length; i++) {
+      TaskOperation operation = operations[i];
+      String action = operation != null ? operation.getAction() : null;
+      Long id = operation != null ? operation.getId() : null;
+      if (TaskOperation.CREATE.equals(action)) {
+        if (NewTaskServlet.isValidTitle(operation.getTitle())) {
+          creates.add(i);
+        } else {
+          results[i] = TaskResult.failure(null, "Invalid title.");
+        }
+      } else if (TaskOperation.COMPLETE.equals(action) || TaskOperation.DELETE.equals(action)) {
+        if (id != null && id > 0) {
+          Map<Long, List<Integer>> byId =
+              TaskOperation.COMPLETE.equals(action) ? completes : deletes;
+          byId.computeIfAbsent(id, key -> new ArrayList<>()).add(i);
+        } else {
+          results[i] = TaskResult.failure(id, "Invalid id.");
+        }
+      } else {
+        results[i] = TaskResult.failure(id, "Invalid action.");
+      }
+    }
+
+    // A task both completed and deleted would be brought back by the completion's write.
+    List<Long> completedAndDeleted = new ArrayList<>(completes.keySet());
+    completedAndDeleted.retainAll(deletes.keySet());
+    fail(completedAndDeleted, completes, results, "Task is deleted in the same batch.");
+    completes.keySet().removeAll(completedAndDeleted);
+
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+
+    // Creates and deletes don't depend on anything, so they are all sent at once.
+    List<List<Integer>> createChunks = chunk(creates, CHUNK_SIZE);
+    List<Future<List<Key>>> createFutures = new ArrayList<>();
+    // Each create gets its own timestamp, one millisecond apart in batch order, so the list pages
+    // through a large batch in a fixed order. They end at the current time so that tasks added
+    // after the batch still list above it.
+    long timestamp = System.currentTimeMillis() - operations.length + 1;
+    for (List<Integer> batch : createChunks) {
+      List<Entity> entities = new ArrayList<>();
+      for (int i : batch) {
+        Entity taskEntity = new Entity("Task");
+        taskEntity.setProperty("title", operations[i].getTitle());
+        taskEntity.setProperty("timestamp", timestamp + i);
+        taskEntity.setProperty("completed", false);
+        entities.add(taskEntity);
+      }
+      createFutures.add(datastore.put(entities));
+    }
+    List<List<Long>> deleteChunks = chunk(new ArrayList<>(deletes.keySet()), CHUNK_SIZE);
+    List<Future<Void>> deleteFutures = new ArrayList<>();
+    for (List<Long> ids : deleteChunks) {
+      deleteFutures.add(datastore.delete(toKeys(ids)));
+    }
+
+    completeTasks(datastore, completes, results);
+
+    for (int c = 0; c < createFutures.size(); c++) {
+      List<Key> keys;
+      try {
+        keys = await(createFutures.get(c));
+      } catch (ExecutionException e) {
+        for (int i : createChunks.get(c)) {
+          results[i] = TaskResult.failure(null, "Could not save the task.");
+        }
+        continue;
+      }
+      for (int k = 0; k < keys.size(); k++) {
+        results[createChunks.get(c).get(k)] = TaskResult.success(keys.get(k).getId());
+      }
+    }
+
+    for (int c = 0; c < deleteFutures.size(); c++) {
+      try {
+        await(deleteFutures.get(c));
+      } catch (ExecutionException e) {
+        fail(deleteChunks.get(c), deletes, results, "Could not delete the task.");
+        continue;
+      }
+      for (long id : deleteChunks.get(c)) {
+        for (int i : deletes.get(id)) {
+          results[i] = TaskResult.success(id);
+        }
+      }
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(GSON.toJson(results));
+  }
+
+  /**
+   * Marks tasks completed. Completing a task rewrites the whole entity, so each group of tasks is
+   * read and written in a transaction: a task deleted or changed in the meantime fails rather than
+   * being brought back or overwritten. The groups' transactions run side by side, a step at a time.
+   */
+  private static void completeTasks(
+      AsyncDatastoreService datastore, Map<Long, List<Integer>> completes, TaskResult[] results)
+      throws IOException {
+    List<List<Long>> chunks = chunk(new ArrayList<>(completes.keySet()), MAX_TRANSACTION_GROUPS);
+    List<Future<Transaction>> begun = new ArrayList<>();
+    for (int c = 0; c < chunks.size(); c++) {
+      begun.add(datastore.beginTransaction(TransactionOptions.Builder.withXG(true)));
+    }
+
+    Transaction[] transactions = new Transaction[chunks.size()];
+    List<Future<Map<Key, Entity>>> reads = new ArrayList<>();
+    for (int c = 0; c < chunks.size(); c++) {
+      try {
+        transactions[c] = await(begun.get(c));
+        reads.add(datastore.get(transactions[c], toKeys(chunks.get(c))));
+      } catch (ExecutionException e) {
+        fail(chunks.get(c), completes, results, "Could not read the task.");
+        reads.add(null);
+      }
+    }
+
+    // The ids written in each transaction, which are the ones that were found.
+    List<List<Long>> written = new ArrayList<>();
+    List<Future<List<Key>>> writes = new ArrayList<>();
+    for (int c = 0; c < chunks.size(); c++) {
+      written.add(new ArrayList<>());
+      writes.add(null);
+      if (reads.get(c) == null) {
+        continue;
+      }
+      Map<Key, Entity> found;
+      try {
+        found = await(reads.get(c));
+      } catch (ExecutionException e) {
+        fail(chunks.get(c), completes, results, "Could not read the task.");
+        transactions[c].rollbackAsync();
+        continue;
+      }
+      List<Entity> entities = new ArrayList<>();
+      for (long id : chunks.get(c)) {
+        Entity taskEntity = found.get(KeyFactory.createKey("Task", id));
+        if (taskEntity == null) {
+          fail(Collections.singletonList(id), completes, results, "Task not found.");
+          continue;
+        }
+        taskEntity.setProperty("completed", true);
+        entities.add(taskEntity);
+        written.get(c).add(id);
+      }
+      writes.set(c, datastore.put(transactions[c], entities));
+    }
+
+    List<Future<Void>> commits = new ArrayList<>();
+    for (int c = 0; c < chunks.size(); c++) {
+      commits.add(null);
+      if (writes.get(c) == null) {
+        continue;
+      }
+      try {
+        await(writes.get(c));
+        commits.set(c, transactions[c].commitAsync());
+      } catch (ExecutionException e) {
+        fail(written.get(c), completes, results, "Could not save the task.");
+        transactions[c].rollbackAsync();
+      }
+    }
+
+    for (int c = 0; c < chunks.size(); c++) {
+      if (commits.get(c) == null) {
+        continue;
+      }
+      try {
+        await(commits.get(c));
+      } catch (ExecutionException e) {
+        String error = e.getCause() instanceof ConcurrentModificationException
+            ? "Task was changed at the same time; try again."
+            : "Could not save the task.";
+        fail(written.get(c), completes, results, error);
+        continue;
+      }
+      for (long id : written.get(c)) {
+        for (int i : completes.get(id)) {
+          results[i] = TaskResult.success(id);
+        }
+      }
+    }
+  }
+
+  /** Records an error for every operation on the given task ids. */
+  private static void fail(
+      List<Long> ids, Map<Long, List<Integer>> operationsById, TaskResult[] results, String error) {
+    for (long id : ids) {
+      for (int i : operationsById.get(id)) {
+        results[i] = TaskResult.failure(id, error);
+      }
+    }
+  }
+
+  /** Splits a list into consecutive lists of at most `size` items. */
+  private static <T> List<List<T>> chunk(List<T> items, int size) {
+    List<List<T>> chunks = new ArrayList<>();
+    for (int start = 0; start < items.size(); start += size) {
+      chunks.add(items.subList(start, Math.min(start + size, items.size())));
+    }
+    return chunks;
+  }
+
+  private static List<Key> toKeys(List<Long> ids) {
+    List<Key> keys = new ArrayList<>(ids.size());
+    for (long id : ids) {
+      keys.add(KeyFactory.createKey("Task", id));
+    }
+    return keys;
+  }
+
+  /**
+   * Waits for a Datastore call.
+   *
+   * @throws ExecutionException if the call failed, so that only its operations fail
+   */
+  private static <T> T await(Future<T> future) throws IOException, ExecutionException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving tasks.", e);
+    }
+  }
+}
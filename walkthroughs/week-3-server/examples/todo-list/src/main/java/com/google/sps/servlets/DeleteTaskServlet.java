@@ -30,7 +30,15 @@ public class DeleteTaskServlet extends HttpServlet {
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    long id = Long.parseLong(request.getParameter("id"));
+    long id;
+    try {
+      id = Long.parseLong(request.getParameter("id"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid id.");
+      return;
+    }
+
+    // The key is enough to delete the task, so the entity is never read.
 
     Key taskEntityKey = KeyFactory.createKey("Task", id);
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
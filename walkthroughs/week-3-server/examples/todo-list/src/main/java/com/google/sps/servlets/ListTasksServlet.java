@@ -14,46 +14,127 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.gson.Gson;
 import com.google.sps.data.Task;
+import com.google.sps.data.TaskPage;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet responsible for listing tasks. */
+/**
+ * Servlet responsible for listing tasks, a page at a time.
+ *
+ * <p>The limit parameter sets the page size and the cursor parameter continues from the page
+ * before. Tasks are read with a projection query on title and timestamp, which is answered from
+ * the composite index in datastore-indexes.xml without fetching the entities.
+ *
+ * <p>Which tasks on the page are completed comes from getting the page's own tasks by key, so it
+ * costs the same however many tasks share the page's timestamps. Completion isn't projected because
+ * a projection skips entities without the property, and tasks saved before completion existed don't
+ * have it; they count as not completed.
+ */
 @WebServlet("/list-tasks")
 public class ListTasksServlet extends HttpServlet {
 
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 100;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query("Task").addSort("timestamp", SortDirection.DESCENDING);
+    FetchOptions fetchOptions;
+    try {
+      fetchOptions = FetchOptions.Builder.withLimit(getLimit(request));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit.");
+      return;
+    }
+    String cursorString = request.getParameter("cursor");
+    if (cursorString != null && !cursorString.isEmpty()) {
+      try {
+        fetchOptions.startCursor(Cursor.fromWebSafeString(cursorString));
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
+    }
+
+    Query query = new Query("Task")
+        .addProjection(new PropertyProjection("title", String.class))
+        .addProjection(new PropertyProjection("timestamp", Long.class))
+        .addSort("timestamp", SortDirection.DESCENDING);
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
+    QueryResultList<Entity> results;
+    try {
+      results = datastore.prepare(query).asQueryResultList(fetchOptions);
+    } catch (IllegalArgumentException e) {
+      // A cursor can decode and still not belong to this query.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
+
+    Set<Key> completedKeys = getCompletedKeys(datastore, results);
 
     List<Task> tasks = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
+    for (Entity entity : results) {
       long id = entity.getKey().getId();
       String title = (String) entity.getProperty("title");
       long timestamp = (long) entity.getProperty("timestamp");
+      boolean completed = completedKeys.contains(entity.getKey());
 
-      Task task = new Task(id, title, timestamp);
+      Task task = new Task(id, title, timestamp, completed);
       tasks.add(task);
     }
 
+    // A full page may have more tasks after it; a short one is the last.
+    String nextCursor = null;
+    if (tasks.size() == fetchOptions.getLimit()) {
+      nextCursor = results.getCursor().toWebSafeString();
+    }
+
     Gson gson = new Gson();
 
     response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(tasks));
+    response.getWriter().println(gson.toJson(new TaskPage(tasks, nextCursor)));
+  }
+
+  /** Returns the keys of the completed tasks on a page. */
+  private static Set<Key> getCompletedKeys(DatastoreService datastore, List<Entity> page) {
+    List<Key> pageKeys = new ArrayList<>();
+    for (Entity entity : page) {
+      pageKeys.add(entity.getKey());
+    }
+    Set<Key> keys = new HashSet<>();
+    for (Entity entity : datastore.get(pageKeys).values()) {
+      if (Boolean.TRUE.equals(entity.getProperty("completed"))) {
+        keys.add(entity.getKey());
+      }
+    }
+    return keys;
+  }
+
+  /** Returns the limit parameter, clamped to 1 to MAX_LIMIT, or DEFAULT_LIMIT if it is missing. */
+  private int getLimit(HttpServletRequest request) {
+    String limitString = request.getParameter("limit");
+    if (limitString == null || limitString.isEmpty()) {
+      return DEFAULT_LIMIT;
+    }
+    return Math.max(1, Math.min(Integer.parseInt(limitString), MAX_LIMIT));
   }
 }
@@ -18,6 +18,7 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -27,18 +28,31 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/new-task")
 public class NewTaskServlet extends HttpServlet {
 
+  /** Longest title Datastore indexes, in UTF-8 bytes, since tasks are listed from the index. */
+  private static final int MAX_TITLE_BYTES = 1500;
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String title = request.getParameter("title");
+    if (!isValidTitle(title)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid title.");
+      return;
+    }
     long timestamp = System.currentTimeMillis();
 
     Entity taskEntity = new Entity("Task");
     taskEntity.setProperty("title", title);
     taskEntity.setProperty("timestamp", timestamp);
+    taskEntity.setProperty("completed", false);
 
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     datastore.put(taskEntity);
 
     response.sendRedirect("/index.html");
   }
+
+  /** Returns whether a task can have this title. */
+  static boolean isValidTitle(String title) {
+    return title != null && title.getBytes(StandardCharsets.UTF_8).length <= MAX_TITLE_BYTES;
+  }
 }
\ No newline at end of file
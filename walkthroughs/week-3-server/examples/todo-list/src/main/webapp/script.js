@@ -12,13 +12,30 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-/** Fetches tasks from the server and adds them to the DOM. */
+/** Cursor for the next page of tasks, or null if every task has been loaded. */
+let nextTaskCursor = null;
+
+/** Fetches the first page of tasks from the server and adds them to the DOM. */
 function loadTasks() {
-  fetch('/list-tasks').then(response => response.json()).then((tasks) => {
+  nextTaskCursor = null;
+  loadTaskPage();
+}
+
+/** Fetches the page of tasks after the ones already displayed and adds them to the DOM. */
+function loadTaskPage() {
+  let url = '/list-tasks';
+  if (nextTaskCursor != null) {
+    url += '?cursor=' + encodeURIComponent(nextTaskCursor);
+  }
+  fetch(url).then(response => response.json()).then((page) => {
     const taskListElement = document.getElementById('task-list');
-    tasks.forEach((task) => {
+    page.tasks.forEach((task) => {
       taskListElement.appendChild(createTaskElement(task));
-    })
+    });
+
+    // Only offer more tasks if the server says there is another page.
+    nextTaskCursor = page.cursor != null ? page.cursor : null;
+    document.getElementById('more-tasks').hidden = nextTaskCursor == null;
   });
 }
 
@@ -26,6 +43,21 @@ function loadTasks() {
 function createTaskElement(task) {
   const taskElement = document.createElement('li');
   taskElement.className = 'task';
+  taskElement.dataset.id = task.id;
+  taskElement.classList.toggle('completed', task.completed);
+
+  const completeCheckboxElement = document.createElement('input');
+  completeCheckboxElement.type = 'checkbox';
+  completeCheckboxElement.checked = task.completed;
+  completeCheckboxElement.disabled = task.completed;
+  completeCheckboxElement.addEventListener('change', () => {
+    completeCheckboxElement.disabled = true;
+    batchTasks([{action: 'complete', id: task.id}]).then((results) => {
+      if (results[0].error == null) {
+        taskElement.classList.add('completed');
+      }
+    });
+  });
 
   const titleElement = document.createElement('span');
   titleElement.innerText = task.title;
@@ -39,6 +71,7 @@ function createTaskElement(task) {
     taskElement.remove();
   });
 
+  taskElement.appendChild(completeCheckboxElement);
   taskElement.appendChild(titleElement);
   taskElement.appendChild(deleteButtonElement);
   return taskElement;
@@ -50,3 +83,38 @@ function deleteTask(task) {
   params.append('id', task.id);
   fetch('/delete-task', {method: 'POST', body: params});
 }
+
+/** Deletes every completed task on the page with one request. */
+function clearCompletedTasks() {
+  const completedElements = Array.from(document.querySelectorAll('.task.completed'));
+  if (completedElements.length == 0) {
+    return;
+  }
+  const operations = completedElements.map(
+      (taskElement) => ({action: 'delete', id: Number(taskElement.dataset.id)}));
+  batchTasks(operations).then((results) => {
+    results.forEach((result, i) => {
+      if (result.error == null) {
+        completedElements[i].remove();
+      }
+    });
+  });
+}
+
+/**
+ * Sends task operations to the server and returns a promise of their results, in order. If the
+ * server turns down the whole batch, every operation's result is an error.
+ */
+function batchTasks(operations) {
+  return fetch('/batch-tasks', {
+    method: 'POST',
+    headers: {'Content-Type': 'application/json'},
+    body: JSON.stringify(operations),
+  }).then((response) => {
+    if (!response.ok) {
+      const error = 'Batch failed with status ' + response.status + '.';
+      return operations.map(operation => ({id: operation.id, error: error}));
+    }
+    return response.json();
+  });
+}
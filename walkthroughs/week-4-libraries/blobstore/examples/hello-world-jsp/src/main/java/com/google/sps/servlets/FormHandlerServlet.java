@@ -17,15 +17,27 @@ package com.google.servlets;
 import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.ServingUrlOptions;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
 import javax.servlet.annotation.WebServlet;
@@ -37,10 +49,16 @@ import javax.servlet.http.HttpServletResponse;
  * When the user submits the form, Blobstore processes the file upload and then forwards the request
  * to this servlet. This servlet can then process the request using the file URL we get from
  * Blobstore.
+ *
+ * <p>Uploads are identified by the SHA-256 of their content, so uploading the same image again
+ * reuses the blob stored the first time and deletes the new copy.
  */
 @WebServlet("/my-form-handler")
 public class FormHandlerServlet extends HttpServlet {
 
+  /** Times to try storing a new upload before giving up. */
+  private static final int MAX_ATTEMPTS = 3;
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
@@ -62,7 +80,8 @@ public class FormHandlerServlet extends HttpServlet {
   }
 
   /** Returns a URL that points to the uploaded file, or null if the user didn't upload a file. */
-  private String getUploadedFileUrl(HttpServletRequest request, String formInputElementName) {
+  private String getUploadedFileUrl(HttpServletRequest request, String formInputElementName)
+      throws IOException {
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get("image");
@@ -85,6 +104,84 @@ public class FormHandlerServlet extends HttpServlet {
     // We could check the validity of the file here, e.g. to make sure it's an image file
     // https://stackoverflow.com/q/10779564/873165
 
+    // Look the content up by its hash. Uploads of an image that is already stored find it here,
+    // without a transaction.
+    String hash = hash(blobKey);
+    Key uploadKey = KeyFactory.createKey("Upload", hash);
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity upload;
+    try {
+      upload = datastore.get(uploadKey);
+    } catch (EntityNotFoundException e) {
+      // Get the URL before the transaction, which then only has to hold the Datastore calls.
+      upload = new Entity(uploadKey);
+      upload.setProperty("blobKey", blobKey.getKeyString());
+      upload.setProperty("url", getServingUrl(blobKey));
+      upload = storeUpload(datastore, upload);
+      if (upload == null) {
+        blobstoreService.delete(blobKey);
+        throw new IOException("Could not store upload " + hash);
+      }
+    }
+
+    // The image is already stored, so this copy isn't needed.
+    if (!blobKey.getKeyString().equals(upload.getProperty("blobKey"))) {
+      blobstoreService.delete(blobKey);
+    }
+    return (String) upload.getProperty("url");
+  }
+
+  /**
+   * Stores a new upload unless another upload of the same image got there first. Returns whichever
+   * upload is stored, or null if the Datastore kept failing.
+   */
+  private static Entity storeUpload(DatastoreService datastore, Entity upload) {
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        try {
+          return datastore.get(transaction, upload.getKey());
+        } catch (EntityNotFoundException e) {
+          datastore.put(transaction, upload);
+          transaction.commit();
+          return upload;
+        }
+      } catch (ConcurrentModificationException e) {
+        // Another upload of the same image committed first, so the next attempt finds it.
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Returns the hex SHA-256 of a blob's content. */
+  private static String hash(BlobKey blobKey) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Every JVM supports SHA-256.", e);
+    }
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = new BlobstoreInputStream(blobKey)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** Returns a URL that serves the image stored in a blob. */
+  private static String getServingUrl(BlobKey blobKey) {
     // Use ImagesService to get a URL that points to the uploaded file.
     ImagesService imagesService = ImagesServiceFactory.getImagesService();
     ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
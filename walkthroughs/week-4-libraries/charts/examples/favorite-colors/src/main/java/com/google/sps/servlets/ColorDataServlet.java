@@ -16,8 +16,8 @@ package com.google.sps.servlets;
 
 import com.google.gson.Gson;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.Scanner;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -28,7 +28,7 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/color-data")
 public class ColorDataServlet extends HttpServlet {
 
-  private Map<String, Integer> colorVotes = new HashMap<>();
+  private final Map<String, Integer> colorVotes = new ConcurrentHashMap<>();
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -41,8 +41,12 @@ public class ColorDataServlet extends HttpServlet {
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String color = request.getParameter("color");
-    int currentVotes = colorVotes.containsKey(color) ? colorVotes.get(color) : 0;
-    colorVotes.put(color, currentVotes + 1);
+    if (color == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing color.");
+      return;
+    }
+    // merge() counts the vote atomically, so votes posted at the same time aren't lost.
+    colorVotes.merge(color, 1, Integer::sum);
 
     response.sendRedirect("/index.html");
   }
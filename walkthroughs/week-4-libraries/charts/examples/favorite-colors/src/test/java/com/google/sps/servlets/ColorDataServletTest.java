@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that votes posted from many threads at once are all counted. */
+@RunWith(JUnit4.class)
+public final class ColorDataServletTest {
+
+  private static final int THREADS = 8;
+  private static final int VOTES_PER_THREAD = 1000;
+
+  @Test
+  public void concurrentVotesAreAllCounted() throws Exception {
+    ColorDataServlet servlet = new ColorDataServlet();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Void>> voters = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        voters.add(executor.submit((Callable<Void>) () -> {
+          for (int i = 0; i < VOTES_PER_THREAD; i++) {
+            String color = i % 2 == 0 ? "red" : "blue";
+            servlet.doPost(request("color", color), response(new StringWriter()));
+          }
+          return null;
+        }));
+      }
+      for (Future<Void> voter : voters) {
+        voter.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    StringWriter body = new StringWriter();
+    servlet.doGet(request("color", null), response(body));
+    Map<String, Integer> votes =
+        new Gson().fromJson(body.toString(), new TypeToken<Map<String, Integer>>() {}.getType());
+    Assert.assertEquals(THREADS * VOTES_PER_THREAD / 2, (int) votes.get("red"));
+    Assert.assertEquals(THREADS * VOTES_PER_THREAD / 2, (int) votes.get("blue"));
+  }
+
+  /** Returns a request with one parameter. Methods other than getParameter return null. */
+  private static HttpServletRequest request(String name, String value) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) ->
+            method.getName().equals("getParameter") && name.equals(args[0]) ? value : null);
+  }
+
+  /** Returns a response that writes its body to `body` and ignores everything else. */
+  private static HttpServletResponse response(StringWriter body) {
+    PrintWriter writer = new PrintWriter(body);
+    return (HttpServletResponse) Proxy.newProxyInstance(
+        HttpServletResponse.class.getClassLoader(),
+        new Class<?>[] {HttpServletResponse.class},
+        (proxy, method, args) -> method.getName().equals("getWriter") ? writer : null);
+  }
+}